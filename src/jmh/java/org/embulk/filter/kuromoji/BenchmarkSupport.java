@@ -0,0 +1,192 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.embulk.EmbulkEmbed;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+import org.embulk.spi.FilterPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Embulk session and synthetic corpus shared by the benchmarks. Runs offline.
+ */
+final class BenchmarkSupport
+{
+    private static final int LONG_TEXT_CHARS = 4096;
+
+    private BenchmarkSupport()
+    {
+    }
+
+    /**
+     * @param text short (product titles), medium (sentences) or long (multi-KB descriptions)
+     * @return texts of the bundled corpus
+     */
+    static List<String> texts(String text)
+    {
+        if (text.equals("short")) {
+            return corpus("titles.txt");
+        }
+        List<String> sentences = corpus("sentences.txt");
+        if (text.equals("medium")) {
+            return sentences;
+        }
+
+        List<String> descriptions = Lists.newArrayList();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; descriptions.size() < sentences.size() / 4; i++) {
+            sb.append(sentences.get(i % sentences.size()));
+            if (sb.length() >= LONG_TEXT_CHARS) {
+                descriptions.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * @param texts
+     * @param i record id
+     * @return text of the record, made unique by its id so that records are not deduplicated
+     */
+    static String text(List<String> texts, int i)
+    {
+        return texts.get(i % texts.size()) + " " + i;
+    }
+
+    private static List<String> corpus(String name)
+    {
+        List<String> lines = Lists.newArrayList();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BenchmarkSupport.class.getResourceAsStream("/corpus/" + name), Charsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return lines;
+    }
+
+    static class Harness implements AutoCloseable
+    {
+        private final EmbulkEmbed embed;
+        private final ExecSession session;
+
+        Harness()
+        {
+            this.embed = new EmbulkEmbed.Bootstrap().initializeCloseable();
+            this.session = ExecSession.builder(embed.getInjector()).build();
+        }
+
+        <T> T run(ExecAction<T> action)
+        {
+            try {
+                return Exec.doWith(session, action);
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        /**
+         * Runs the filter transaction and opens a page output for task 0.
+         *
+         * @param config
+         * @param inputSchema
+         * @param output
+         * @return
+         */
+        PageOutput open(final ConfigSource config, final Schema inputSchema, final PageOutput output)
+        {
+            return run(new ExecAction<PageOutput>()
+            {
+                @Override
+                public PageOutput run()
+                {
+                    final KuromojiFilterPlugin plugin = new KuromojiFilterPlugin();
+                    final PageOutput[] opened = new PageOutput[1];
+                    plugin.transaction(config, inputSchema, new FilterPlugin.Control()
+                    {
+                        @Override
+                        public void run(TaskSource taskSource, Schema outputSchema)
+                        {
+                            opened[0] = plugin.open(taskSource, inputSchema, outputSchema, output);
+                        }
+                    });
+                    return opened[0];
+                }
+            });
+        }
+
+        @Override
+        public void close()
+        {
+            session.cleanup();
+            embed.destroy();
+        }
+    }
+
+    static class CollectOutput implements PageOutput
+    {
+        private final List<Page> pages = Lists.newArrayList();
+
+        List<Page> getPages()
+        {
+            return pages;
+        }
+
+        @Override
+        public void add(Page page)
+        {
+            pages.add(page);
+        }
+
+        @Override
+        public void finish()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    static class DiscardOutput implements PageOutput
+    {
+        @Override
+        public void add(Page page)
+        {
+            page.release();
+        }
+
+        @Override
+        public void finish()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Records per second through {@link TokenizePageOutput} with each {@link TokenizerEngine}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class KuromojiFilterBenchmark
+{
+    static final int RECORDS = 1000;
+
+    @Param({"kuromoji", "neologd"})
+    public String tokenizer;
+
+    @Param({"normal", "search", "extended"})
+    public String mode;
+
+    @Param({"short", "medium", "long"})
+    public String text;
+
+    @Param({"string", "array"})
+    public String type;
+
+    @Param({"none", "noun"})
+    public String partsOfSpeech;
+
+    @Param({"basic", "all"})
+    public String methods;
+
+    private BenchmarkSupport.Harness harness;
+    private Schema inputSchema;
+    private List<String> texts;
+    private PageOutput output;
+    private List<Page> pages;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        harness = new BenchmarkSupport.Harness();
+        inputSchema = Schema.builder().add("id", Types.LONG).add("text", Types.STRING).build();
+        texts = BenchmarkSupport.texts(text);
+        ConfigSource config = harness.run(new ExecAction<ConfigSource>()
+        {
+            @Override
+            public ConfigSource run()
+            {
+                ConfigSource config = Exec.newConfigSource()
+                    .set("tokenizer", tokenizer)
+                    .set("mode", mode)
+                    .set("key_names", ImmutableList.of("text"))
+                    .set("settings", ImmutableList.of(
+                            ImmutableMap.of("suffix", "_surface_form", "method", "surface_form", "delimiter", "###", "type", type),
+                            ImmutableMap.of("suffix", "_base_form", "method", "base_form", "delimiter", "###", "type", type),
+                            ImmutableMap.of("suffix", "_reading", "method", "reading", "delimiter", "", "type", type)));
+                if (methods.equals("all")) {
+                    config.set("settings", ImmutableList.of(
+                            ImmutableMap.of("suffix", "_surface_form", "method", "surface_form", "delimiter", "###", "type", type),
+                            ImmutableMap.of("suffix", "_base_form", "method", "base_form", "delimiter", "###", "type", type),
+                            ImmutableMap.of("suffix", "_reading", "method", "reading", "delimiter", "", "type", type),
+                            ImmutableMap.of("suffix", "_pronunciation", "method", "pronunciation", "delimiter", "", "type", type),
+                            ImmutableMap.of("suffix", "_inflection", "method", "inflection", "delimiter", "###", "type", type),
+                            ImmutableMap.of("suffix", "_part_of_speech", "method", "part_of_speech", "delimiter", "###", "type", type)));
+                }
+                if (partsOfSpeech.equals("noun")) {
+                    config.set("ok_parts_of_speech", ImmutableList.of("名詞"));
+                }
+                return config;
+            }
+        });
+        output = harness.open(config, inputSchema, new BenchmarkSupport.DiscardOutput());
+    }
+
+    @Setup(Level.Invocation)
+    public void preparePages()
+    {
+        pages = harness.run(new ExecAction<List<Page>>()
+        {
+            @Override
+            public List<Page> run()
+            {
+                BenchmarkSupport.CollectOutput collect = new BenchmarkSupport.CollectOutput();
+                PageBuilder builder = new PageBuilder(Exec.getBufferAllocator(), inputSchema, collect);
+                for (int i = 0; i < RECORDS; i++) {
+                    builder.setLong(0, i);
+                    builder.setString(1, BenchmarkSupport.text(texts, i));
+                    builder.addRecord();
+                }
+                builder.finish();
+                return collect.getPages();
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void add()
+    {
+        for (Page page : pages) {
+            output.add(page);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        harness.run(new ExecAction<Void>()
+        {
+            @Override
+            public Void run()
+            {
+                output.finish();
+                output.close();
+                return null;
+            }
+        });
+        harness.close();
+    }
+}
@@ -0,0 +1,222 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Column;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * {@code keep_input} on wide schemas: the former per-value type dispatch against {@link ColumnCopier},
+ * and the whole filter with a single short key column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PassthroughBenchmark
+{
+    static final int RECORDS = 1000;
+    private static final Type[] TYPES = {Types.STRING, Types.LONG, Types.DOUBLE, Types.JSON, Types.TIMESTAMP, Types.BOOLEAN};
+
+    @Param({"20", "80"})
+    public int columns;
+
+    private BenchmarkSupport.Harness harness;
+    private Schema inputSchema;
+    private List<String> titles;
+    private Value json;
+    private ColumnCopier[] copiers;
+    private PageReader reader;
+    private PageBuilder copyBuilder;
+    private PageOutput output;
+    private List<Page> pages;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        harness = new BenchmarkSupport.Harness();
+        Schema.Builder schema = Schema.builder().add("text", Types.STRING);
+        for (int i = 1; i < columns; i++) {
+            schema.add("c" + i, TYPES[i % TYPES.length]);
+        }
+        inputSchema = schema.build();
+        titles = BenchmarkSupport.texts("short");
+
+        List<Value> items = Lists.newArrayList();
+        for (int i = 0; i < 32; i++) {
+            items.add(ValueFactory.newMap(
+                    ValueFactory.newString("name"), ValueFactory.newString(titles.get(i)),
+                    ValueFactory.newString("price"), ValueFactory.newInteger(1000 + i)));
+        }
+        json = ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray(items));
+
+        copiers = ColumnCopier.of(inputSchema);
+        final ConfigSource config = harness.run(new ExecAction<ConfigSource>()
+        {
+            @Override
+            public ConfigSource run()
+            {
+                reader = new PageReader(inputSchema);
+                copyBuilder = new PageBuilder(Exec.getBufferAllocator(), inputSchema, new BenchmarkSupport.DiscardOutput());
+                return Exec.newConfigSource()
+                    .set("key_names", ImmutableList.of("text"))
+                    .set("settings", ImmutableList.of(ImmutableMap.of("suffix", "_surface_form", "method", "surface_form")));
+            }
+        });
+        output = harness.open(config, inputSchema, new BenchmarkSupport.DiscardOutput());
+    }
+
+    @Setup(Level.Invocation)
+    public void preparePages()
+    {
+        pages = harness.run(new ExecAction<List<Page>>()
+        {
+            @Override
+            public List<Page> run()
+            {
+                BenchmarkSupport.CollectOutput collect = new BenchmarkSupport.CollectOutput();
+                PageBuilder builder = new PageBuilder(Exec.getBufferAllocator(), inputSchema, collect);
+                for (int i = 0; i < RECORDS; i++) {
+                    for (Column column : inputSchema.getColumns()) {
+                        setValue(builder, column, i);
+                    }
+                    builder.addRecord();
+                }
+                builder.finish();
+                return collect.getPages();
+            }
+        });
+    }
+
+    private void setValue(PageBuilder builder, Column column, int i)
+    {
+        Type type = column.getType();
+        if (Types.STRING.equals(type)) {
+            builder.setString(column, BenchmarkSupport.text(titles, i + column.getIndex()));
+        }
+        else if (Types.LONG.equals(type)) {
+            builder.setLong(column, i);
+        }
+        else if (Types.DOUBLE.equals(type)) {
+            builder.setDouble(column, i * 0.5);
+        }
+        else if (Types.JSON.equals(type)) {
+            builder.setJson(column, json);
+        }
+        else if (Types.TIMESTAMP.equals(type)) {
+            builder.setTimestamp(column, Timestamp.ofEpochSecond(1500000000L + i));
+        }
+        else {
+            builder.setBoolean(column, i % 2 == 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void typeDispatch()
+    {
+        for (Page page : pages) {
+            reader.setPage(page);
+            while (reader.nextRecord()) {
+                for (Column column : inputSchema.getColumns()) {
+                    if (reader.isNull(column)) {
+                        copyBuilder.setNull(column);
+                        continue;
+                    }
+                    if (Types.STRING.equals(column.getType())) {
+                        copyBuilder.setString(column, reader.getString(column));
+                    }
+                    else if (Types.BOOLEAN.equals(column.getType())) {
+                        copyBuilder.setBoolean(column, reader.getBoolean(column));
+                    }
+                    else if (Types.DOUBLE.equals(column.getType())) {
+                        copyBuilder.setDouble(column, reader.getDouble(column));
+                    }
+                    else if (Types.LONG.equals(column.getType())) {
+                        copyBuilder.setLong(column, reader.getLong(column));
+                    }
+                    else if (Types.TIMESTAMP.equals(column.getType())) {
+                        copyBuilder.setTimestamp(column, reader.getTimestamp(column));
+                    }
+                    else if (Types.JSON.equals(column.getType())) {
+                        copyBuilder.setJson(column, reader.getJson(column));
+                    }
+                }
+                copyBuilder.addRecord();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void columnCopier()
+    {
+        for (Page page : pages) {
+            reader.setPage(page);
+            while (reader.nextRecord()) {
+                ColumnCopier.copyAll(copiers, reader, copyBuilder);
+                copyBuilder.addRecord();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void filter()
+    {
+        for (Page page : pages) {
+            output.add(page);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        harness.run(new ExecAction<Void>()
+        {
+            @Override
+            public Void run()
+            {
+                reader.close();
+                copyBuilder.close();
+                output.finish();
+                output.close();
+                return null;
+            }
+        });
+        harness.close();
+    }
+}
@@ -0,0 +1,174 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+
+import com.google.common.base.Throwables;
+
+/**
+ * A pipeline stage ({@code pipeline: true}): pages passed to {@link #add(Page)} are queued and
+ * handed to the delegate on a dedicated thread.
+ *
+ * The queue is bounded, so {@code add} blocks while the stage is behind. Pages are delivered in
+ * order by the single thread. The first error of the delegate fails the next {@code add} and
+ * {@code finish}; pages queued after it are released without being processed. {@code finish}
+ * waits for the queued pages and then finishes the delegate on the caller thread, and
+ * {@code close} releases the pages still queued.
+ */
+public class AsyncPageOutput implements PageOutput
+{
+    private static final Object STOP = new Object();
+
+    private final PageOutput delegate;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile Throwable error;
+    private boolean closed;
+
+    /**
+     * @param delegate
+     * @param queueSize max number of pages waiting for the delegate
+     * @param name name of the thread
+     */
+    public AsyncPageOutput(PageOutput delegate, int queueSize, String name)
+    {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        final ExecSession session = Exec.session();
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    Exec.doWith(session, new ExecAction<Void>()
+                    {
+                        @Override
+                        public Void run() throws InterruptedException
+                        {
+                            consume();
+                            return null;
+                        }
+                    });
+                }
+                catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void consume() throws InterruptedException
+    {
+        while (true) {
+            Object item = queue.take();
+            if (item == STOP) {
+                return;
+            }
+            if (item instanceof CountDownLatch) {
+                ((CountDownLatch) item).countDown();
+                continue;
+            }
+            Page page = (Page) item;
+            if (error != null) {
+                page.release();
+                continue;
+            }
+            try {
+                delegate.add(page);
+            }
+            catch (Throwable e) {
+                error = e;
+            }
+        }
+    }
+
+    @Override
+    public void add(Page page)
+    {
+        try {
+            checkError();
+            put(page);
+        }
+        catch (RuntimeException e) {
+            // the page was not queued, so nothing else will release it
+            page.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void finish()
+    {
+        CountDownLatch drained = new CountDownLatch(1);
+        put(drained);
+        try {
+            drained.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        checkError();
+        delegate.finish();
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Object item;
+            while ((item = queue.poll()) != null) {
+                if (item instanceof Page) {
+                    ((Page) item).release();
+                }
+                else if (item instanceof CountDownLatch) {
+                    ((CountDownLatch) item).countDown();
+                }
+            }
+            put(STOP);
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            delegate.close();
+        }
+    }
+
+    private void put(Object item)
+    {
+        try {
+            queue.put(item);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void checkError()
+    {
+        if (error != null) {
+            throw Throwables.propagate(error);
+        }
+    }
+}
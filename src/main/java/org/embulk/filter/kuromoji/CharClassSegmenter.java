@@ -0,0 +1,84 @@
+package org.embulk.filter.kuromoji;
+
+import java.lang.Character.UnicodeBlock;
+
+import org.embulk.filter.kuromoji.TokenBuffer.Field;
+
+/**
+ * Fallback segmentation of outlier values ({@code max_chars} / {@code max_tokenize_millis}).
+ *
+ * Splits a text into runs of the same character class (kanji, hiragana, katakana, letters,
+ * digits) in linear time without a dictionary. Whitespace separates runs and other characters
+ * are single tokens. The surface is also set as the base form; the other fields are absent and
+ * the part of speech filter does not apply.
+ */
+public class CharClassSegmenter implements TokenizerEngine
+{
+    private static final int SPACE = 0;
+    private static final int KANJI = 1;
+    private static final int HIRAGANA = 2;
+    private static final int KATAKANA = 3;
+    private static final int LETTER = 4;
+    private static final int DIGIT = 5;
+    private static final int OTHER = 6;
+
+    @Override
+    public void tokenize(String text, TokenBuffer tokens)
+    {
+        int length = text.length();
+        int start = 0;
+        int startClass = SPACE;
+        for (int i = 0; i <= length; i++) {
+            int charClass = i < length ? charClass(text.charAt(i)) : SPACE;
+            boolean continues = charClass == startClass && charClass != OTHER && charClass != SPACE
+                    || (i < length && Character.isLowSurrogate(text.charAt(i)));
+            if (continues) {
+                continue;
+            }
+            if (startClass != SPACE) {
+                add(text, start, i, tokens);
+            }
+            start = i;
+            startClass = charClass;
+        }
+    }
+
+    private static void add(String text, int from, int to, TokenBuffer tokens)
+    {
+        String surface = text.substring(from, to);
+        tokens.add();
+        tokens.set(Field.SURFACE, surface);
+        tokens.set(Field.BASE_FORM, surface);
+    }
+
+    private static int charClass(char c)
+    {
+        if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+            return SPACE;
+        }
+        if (c < 0x80) {
+            if (c >= '0' && c <= '9') {
+                return DIGIT;
+            }
+            return Character.isLetter(c) ? LETTER : OTHER;
+        }
+        if (c == '\u30fc') {
+            return KATAKANA;
+        }
+        UnicodeBlock block = UnicodeBlock.of(c);
+        if (block == UnicodeBlock.HIRAGANA) {
+            return HIRAGANA;
+        }
+        if (block == UnicodeBlock.KATAKANA || block == UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS) {
+            return KATAKANA;
+        }
+        if (block == UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS || block == UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS || c == '\u3005') {
+            return KANJI;
+        }
+        if (Character.isDigit(c)) {
+            return DIGIT;
+        }
+        return Character.isLetter(c) ? LETTER : OTHER;
+    }
+}
@@ -0,0 +1,237 @@
+package org.embulk.filter.kuromoji;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.NormalizeTask;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * {@code normalize} pre-stage: NFKC, width folding, lowercasing and character removal /
+ * replacement in one pass over the text.
+ *
+ * Every stage is folded into a table from each BMP char to its output, computed once per
+ * configuration. A voiced sound mark is composed with the kana before it through a second
+ * table, so half-width katakana such as {@code ｶﾞ} become {@code ガ} as with NFKC. Texts with
+ * other combining marks or supplementary characters are completed by {@link Normalizer}. A text
+ * that needs no change is returned as is.
+ */
+public class CharNormalizer
+{
+    private static final Map<String, CharNormalizer> normalizers = Maps.newHashMap();
+    private static final char VOICED_MARK = '\u3099';
+    private static final char SEMI_VOICED_MARK = '\u309a';
+
+    private final boolean nfkc;
+    // char -> output, null for the char itself, "" when removed
+    private final String[] table = new String[Character.MAX_VALUE + 1];
+    // char -> a replace key starts with it
+    private final boolean[] replaceStarts = new boolean[Character.MAX_VALUE + 1];
+    // first char -> replace keys, longest first
+    private final Map<Character, String[]> replaceKeys = Maps.newHashMap();
+    private final Map<String, String> replace;
+    // (kana << 16 | mark) -> composed kana
+    private final Map<Integer, Character> compositions = Maps.newHashMap();
+
+    private CharNormalizer(NormalizeTask task)
+    {
+        this.nfkc = task.getNfkc();
+        this.replace = task.getReplace();
+        buildTable(task);
+        buildReplaceKeys();
+        if (nfkc || task.getWidth()) {
+            buildCompositions();
+        }
+    }
+
+    /**
+     * @param task
+     * @return normalizer shared by the tasks of the same configuration
+     */
+    public static CharNormalizer of(NormalizeTask task)
+    {
+        String key = task.dump().toString();
+        synchronized (normalizers) {
+            CharNormalizer normalizer = normalizers.get(key);
+            if (normalizer == null) {
+                normalizer = new CharNormalizer(task);
+                normalizers.put(key, normalizer);
+            }
+            return normalizer;
+        }
+    }
+
+    private void buildTable(NormalizeTask task)
+    {
+        boolean[] removed = new boolean[Character.MAX_VALUE + 1];
+        for (char c : task.getRemove().toCharArray()) {
+            removed[c] = true;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (Character.isSurrogate((char) c)) {
+                continue;
+            }
+            if (removed[c]) {
+                table[c] = "";
+                continue;
+            }
+            String mapped = String.valueOf((char) c);
+            if (nfkc || (task.getWidth() && isWidthVariant(c))) {
+                mapped = Normalizer.normalize(mapped, Normalizer.Form.NFKC);
+            }
+            sb.setLength(0);
+            for (int i = 0; i < mapped.length(); i++) {
+                char m = task.getLowercase() ? Character.toLowerCase(mapped.charAt(i)) : mapped.charAt(i);
+                if (!removed[m]) {
+                    sb.append(m);
+                }
+            }
+            if (sb.length() != 1 || sb.charAt(0) != c) {
+                table[c] = sb.toString();
+            }
+        }
+    }
+
+    /**
+     * @param c
+     * @return true for the ideographic space and the halfwidth and fullwidth forms
+     */
+    private static boolean isWidthVariant(int c)
+    {
+        return c == '\u3000' || (c >= '\uff00' && c <= '\uffef');
+    }
+
+    private void buildReplaceKeys()
+    {
+        Map<Character, List<String>> keys = Maps.newHashMap();
+        for (String key : replace.keySet()) {
+            if (key.isEmpty()) {
+                continue;
+            }
+            if (!keys.containsKey(key.charAt(0))) {
+                keys.put(key.charAt(0), Lists.<String>newArrayList());
+            }
+            keys.get(key.charAt(0)).add(key);
+        }
+        for (Map.Entry<Character, List<String>> entry : keys.entrySet()) {
+            String[] sorted = entry.getValue().toArray(new String[entry.getValue().size()]);
+            Arrays.sort(sorted, new Comparator<String>()
+            {
+                @Override
+                public int compare(String a, String b)
+                {
+                    return b.length() - a.length();
+                }
+            });
+            replaceStarts[entry.getKey()] = true;
+            replaceKeys.put(entry.getKey(), sorted);
+        }
+    }
+
+    private void buildCompositions()
+    {
+        for (char kana = '\u3040'; kana <= '\u30ff'; kana++) {
+            for (char mark : new char[] {VOICED_MARK, SEMI_VOICED_MARK}) {
+                String composed = Normalizer.normalize(new String(new char[] {kana, mark}), Normalizer.Form.NFC);
+                if (composed.length() == 1) {
+                    compositions.put(kana << 16 | mark, composed.charAt(0));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param text
+     * @param buffer reused for the output
+     * @return normalized text
+     */
+    public String normalize(String text, StringBuilder buffer)
+    {
+        int length = text.length();
+        int i = 0;
+        while (i < length && !changes(text.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return text;
+        }
+
+        buffer.setLength(0);
+        buffer.append(text, 0, i);
+        boolean incomplete = false;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (replaceStarts[c]) {
+                String key = matchReplaceKey(text, i);
+                if (key != null) {
+                    buffer.append(replace.get(key));
+                    i += key.length();
+                    continue;
+                }
+            }
+            String mapped = table[c];
+            if (mapped == null) {
+                buffer.append(c);
+            }
+            else {
+                buffer.append(mapped);
+            }
+            i++;
+            int last = buffer.length() - 1;
+            if (last > 0) {
+                char tail = buffer.charAt(last);
+                if (tail == VOICED_MARK || tail == SEMI_VOICED_MARK) {
+                    Character composed = compositions.get(buffer.charAt(last - 1) << 16 | tail);
+                    if (composed != null) {
+                        buffer.setLength(last - 1);
+                        buffer.append(composed.charValue());
+                        continue;
+                    }
+                }
+                incomplete |= nfkc && isContextual(tail);
+            }
+            else if (last == 0) {
+                incomplete |= nfkc && isContextual(buffer.charAt(0));
+            }
+        }
+        String normalized = buffer.toString();
+        return incomplete ? Normalizer.normalize(normalized, Normalizer.Form.NFKC) : normalized;
+    }
+
+    private boolean changes(char c)
+    {
+        return table[c] != null || replaceStarts[c] || (nfkc && isContextual(c));
+    }
+
+    private String matchReplaceKey(String text, int offset)
+    {
+        for (String key : replaceKeys.get(text.charAt(offset))) {
+            if (text.regionMatches(offset, key, 0, key.length())) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param c
+     * @return true when NFKC of the char depends on the chars around it
+     */
+    private static boolean isContextual(char c)
+    {
+        if (c < '\u0300') {
+            return false;
+        }
+        if (Character.isSurrogate(c) || (c >= '\u1100' && c <= '\u11ff')) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK;
+    }
+}
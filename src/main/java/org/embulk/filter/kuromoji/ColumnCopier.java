@@ -0,0 +1,289 @@
+package org.embulk.filter.kuromoji;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnVisitor;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.msgpack.value.Value;
+
+/**
+ * Copies an input column to the same index of the output page.
+ *
+ * Copiers are resolved once per task from the column type, so {@code keep_input} does not
+ * dispatch on the type of every value. Strings and json are held by reference in a page, so
+ * they are passed through as is without being decoded or re-encoded.
+ */
+public abstract class ColumnCopier
+{
+    protected final Column column;
+
+    protected ColumnCopier(Column column)
+    {
+        this.column = column;
+    }
+
+    /**
+     * @param schema
+     * @return copiers of all columns
+     */
+    public static ColumnCopier[] of(Schema schema)
+    {
+        final ColumnCopier[] copiers = new ColumnCopier[schema.getColumnCount()];
+        schema.visitColumns(new ColumnVisitor()
+        {
+            @Override
+            public void booleanColumn(Column column)
+            {
+                copiers[column.getIndex()] = new BooleanCopier(column);
+            }
+
+            @Override
+            public void longColumn(Column column)
+            {
+                copiers[column.getIndex()] = new LongCopier(column);
+            }
+
+            @Override
+            public void doubleColumn(Column column)
+            {
+                copiers[column.getIndex()] = new DoubleCopier(column);
+            }
+
+            @Override
+            public void stringColumn(Column column)
+            {
+                copiers[column.getIndex()] = new StringCopier(column);
+            }
+
+            @Override
+            public void timestampColumn(Column column)
+            {
+                copiers[column.getIndex()] = new TimestampCopier(column);
+            }
+
+            @Override
+            public void jsonColumn(Column column)
+            {
+                copiers[column.getIndex()] = new JsonCopier(column);
+            }
+        });
+        return copiers;
+    }
+
+    public static void copyAll(ColumnCopier[] copiers, PageReader reader, PageBuilder builder)
+    {
+        for (ColumnCopier copier : copiers) {
+            copier.copy(reader, builder);
+        }
+    }
+
+    /**
+     * @param copiers
+     * @param reader
+     * @return values of the current record. null for null columns.
+     */
+    public static Object[] readAll(ColumnCopier[] copiers, PageReader reader)
+    {
+        Object[] values = new Object[copiers.length];
+        for (int i = 0; i < copiers.length; i++) {
+            values[i] = copiers[i].read(reader);
+        }
+        return values;
+    }
+
+    public static void writeAll(ColumnCopier[] copiers, PageBuilder builder, Object[] values)
+    {
+        for (int i = 0; i < copiers.length; i++) {
+            copiers[i].write(builder, values[i]);
+        }
+    }
+
+    public void copy(PageReader reader, PageBuilder builder)
+    {
+        if (reader.isNull(column)) {
+            builder.setNull(column);
+        }
+        else {
+            copyValue(reader, builder);
+        }
+    }
+
+    public Object read(PageReader reader)
+    {
+        return reader.isNull(column) ? null : readValue(reader);
+    }
+
+    public void write(PageBuilder builder, Object value)
+    {
+        if (value == null) {
+            builder.setNull(column);
+        }
+        else {
+            writeValue(builder, value);
+        }
+    }
+
+    protected abstract void copyValue(PageReader reader, PageBuilder builder);
+
+    protected abstract Object readValue(PageReader reader);
+
+    protected abstract void writeValue(PageBuilder builder, Object value);
+
+    private static class BooleanCopier extends ColumnCopier
+    {
+        BooleanCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setBoolean(column, reader.getBoolean(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getBoolean(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setBoolean(column, (Boolean) value);
+        }
+    }
+
+    private static class LongCopier extends ColumnCopier
+    {
+        LongCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setLong(column, reader.getLong(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getLong(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setLong(column, (Long) value);
+        }
+    }
+
+    private static class DoubleCopier extends ColumnCopier
+    {
+        DoubleCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setDouble(column, reader.getDouble(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getDouble(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setDouble(column, (Double) value);
+        }
+    }
+
+    private static class StringCopier extends ColumnCopier
+    {
+        StringCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setString(column, reader.getString(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getString(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setString(column, (String) value);
+        }
+    }
+
+    private static class TimestampCopier extends ColumnCopier
+    {
+        TimestampCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setTimestamp(column, reader.getTimestamp(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getTimestamp(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setTimestamp(column, (Timestamp) value);
+        }
+    }
+
+    private static class JsonCopier extends ColumnCopier
+    {
+        JsonCopier(Column column)
+        {
+            super(column);
+        }
+
+        @Override
+        protected void copyValue(PageReader reader, PageBuilder builder)
+        {
+            builder.setJson(column, reader.getJson(column));
+        }
+
+        @Override
+        protected Object readValue(PageReader reader)
+        {
+            return reader.getJson(column);
+        }
+
+        @Override
+        protected void writeValue(PageBuilder builder, Object value)
+        {
+            builder.setJson(column, (Value) value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Set;
+
+import org.embulk.filter.kuromoji.TokenBuffer.Field;
+
+import com.atilika.kuromoji.ipadic.Token;
+import com.atilika.kuromoji.ipadic.Tokenizer;
+import com.google.common.base.MoreObjects;
+
+/**
+ * Engine of the pure kuromoji IPADIC {@link Tokenizer}. Every feature getter of a token builds
+ * the whole feature array again, so the array is fetched once per token and indexed here, and
+ * not at all when neither the filter nor a requested field needs it.
+ */
+public class KuromojiEngine implements TokenizerEngine
+{
+    private static final String EMPTY = "*";
+
+    // indexes of Token.getAllFeaturesArray(), the IPADIC feature columns
+    static final int PART_OF_SPEECH_LEVEL_1 = 0;
+    static final int CONJUGATION_TYPE = 4;
+    static final int CONJUGATION_FORM = 5;
+    static final int BASE_FORM = 6;
+    static final int READING = 7;
+    static final int PRONUNCIATION = 8;
+
+    private final Tokenizer tokenizer;
+    private final PartOfSpeechFilter partOfSpeechFilter;
+    private final boolean baseForm;
+    private final boolean reading;
+    private final boolean pronunciation;
+    private final boolean inflection;
+    private final boolean partOfSpeech;
+    private final boolean readFeatures;
+
+    public KuromojiEngine(Tokenizer tokenizer, Set<Field> fields, PartOfSpeechFilter partOfSpeechFilter)
+    {
+        this.tokenizer = tokenizer;
+        this.partOfSpeechFilter = partOfSpeechFilter;
+        this.baseForm = fields.contains(Field.BASE_FORM);
+        this.reading = fields.contains(Field.READING);
+        this.pronunciation = fields.contains(Field.PRONUNCIATION);
+        this.inflection = fields.contains(Field.INFLECTION);
+        this.partOfSpeech = fields.contains(Field.PART_OF_SPEECH);
+        this.readFeatures = partOfSpeechFilter != null || baseForm || reading || pronunciation || inflection || partOfSpeech;
+    }
+
+    /**
+     * @param features
+     * @param index
+     * @return null when the token has no such feature, as the unknown words have no reading
+     */
+    static String feature(String[] features, int index)
+    {
+        return index < features.length ? features[index] : null;
+    }
+
+    @Override
+    public void tokenize(String text, TokenBuffer tokens)
+    {
+        for (Token token : tokenizer.tokenize(text)) {
+            String[] features = readFeatures ? token.getAllFeaturesArray() : null;
+            if (partOfSpeechFilter != null && !partOfSpeechFilter.accept(features)) {
+                tokens.drop();
+                continue;
+            }
+            String surface = token.getSurface();
+            tokens.add();
+            tokens.set(Field.SURFACE, surface);
+            if (baseForm) {
+                tokens.set(Field.BASE_FORM, MoreObjects.firstNonNull(feature(features, BASE_FORM), surface));
+            }
+            if (reading) {
+                tokens.set(Field.READING, MoreObjects.firstNonNull(feature(features, READING), surface));
+            }
+            if (pronunciation) {
+                tokens.set(Field.PRONUNCIATION, MoreObjects.firstNonNull(feature(features, PRONUNCIATION), surface));
+            }
+            if (inflection) {
+                tokens.set(Field.INFLECTION, inflection(features));
+            }
+            if (partOfSpeech) {
+                tokens.set(Field.PART_OF_SPEECH, partOfSpeech(features));
+            }
+        }
+    }
+
+    /**
+     * @param features
+     * @return {@code <conjugation type>-<conjugation form>}, or {@code *} for a word that does not inflect
+     */
+    private static String inflection(String[] features)
+    {
+        String type = feature(features, CONJUGATION_TYPE);
+        if (type == null || type.equals(EMPTY)) {
+            return EMPTY;
+        }
+        return type + "-" + feature(features, CONJUGATION_FORM);
+    }
+
+    /**
+     * @param features
+     * @return levels joined with {@code -} without the empty ones, the format of NEologd
+     */
+    private static String partOfSpeech(String[] features)
+    {
+        StringBuilder sb = new StringBuilder(features[PART_OF_SPEECH_LEVEL_1]);
+        for (int i = PART_OF_SPEECH_LEVEL_1 + 1; i < PART_OF_SPEECH_LEVEL_1 + 4; i++) {
+            String level = feature(features, i);
+            if (level == null || level.equals(EMPTY)) {
+                break;
+            }
+            sb.append('-').append(level);
+        }
+        return sb.toString();
+    }
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
@@ -13,11 +14,8 @@ import org.embulk.spi.Exec;
 import org.embulk.spi.FilterPlugin;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.Schema;
-import org.embulk.spi.type.Type;
-import org.embulk.spi.type.Types;
 import org.slf4j.Logger;
 
-import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
@@ -47,16 +45,165 @@ public class KuromojiFilterPlugin implements FilterPlugin
         @ConfigDefault("null")
         public Optional<String> getDictionaryPath();
 
+        @Config("warm_up")
+        @ConfigDefault("false")
+        public boolean getWarmUp();
+
+        @Config("warm_up_millis")
+        @ConfigDefault("1000")
+        public long getWarmUpMillis();
+
+        @Config("background_load")
+        @ConfigDefault("false")
+        public boolean getBackgroundLoad();
+
+        @Config("normalize")
+        @ConfigDefault("null")
+        public Optional<NormalizeTask> getNormalize();
+
+        @Config("skip_if")
+        @ConfigDefault("null")
+        public Optional<SkipIfTask> getSkipIf();
+
         @Config("ok_parts_of_speech")
         @ConfigDefault("null")
         public Optional<List<String>> getOkPartsOfSpeech();
 
+        @Config("ng_parts_of_speech")
+        @ConfigDefault("null")
+        public Optional<List<String>> getNgPartsOfSpeech();
+
         @Config("keep_input")
         @ConfigDefault("true")
         public boolean getKeepInput();
 
+        @Config("parallelism")
+        @ConfigDefault("1")
+        public int getParallelism();
+
+        @Config("pipeline")
+        @ConfigDefault("false")
+        public boolean getPipeline();
+
+        @Config("pipeline_queue_size")
+        @ConfigDefault("2")
+        public int getPipelineQueueSize();
+
+        @Config("max_chunk_chars")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxChunkChars();
+
+        @Config("max_tokens")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxTokens();
+
+        @Config("max_chars")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxChars();
+
+        @Config("max_tokenize_millis")
+        @ConfigDefault("null")
+        public Optional<Long> getMaxTokenizeMillis();
+
+        @Config("cache_size")
+        @ConfigDefault("0")
+        public int getCacheSize();
+
+        @Config("cache_max_text_length")
+        @ConfigDefault("1024")
+        public int getCacheMaxTextLength();
+
+        @Config("cache_max_bytes")
+        @ConfigDefault("67108864")
+        public long getCacheMaxBytes();
+
+        @Config("intern_pool_size")
+        @ConfigDefault("16384")
+        public int getInternPoolSize();
+
+        @Config("persistent_cache_path")
+        @ConfigDefault("null")
+        public Optional<String> getPersistentCachePath();
+
+        @Config("persistent_cache_max_bytes")
+        @ConfigDefault("268435456")
+        public long getPersistentCacheMaxBytes();
+
+        public long getPersistentCacheFingerprint();
+        public void setPersistentCacheFingerprint(long fingerprint);
+
+        @Config("metrics")
+        @ConfigDefault("false")
+        public boolean getMetrics();
+
+        @Config("metrics_path")
+        @ConfigDefault("null")
+        public Optional<String> getMetricsPath();
+
         @Config("settings")
-        public List<Map<String, String>> getSettings();
+        public List<Map<String, Object>> getSettings();
+    }
+
+    public interface NormalizeTask extends Task
+    {
+        @Config("nfkc")
+        @ConfigDefault("true")
+        public boolean getNfkc();
+
+        @Config("width")
+        @ConfigDefault("true")
+        public boolean getWidth();
+
+        @Config("lowercase")
+        @ConfigDefault("false")
+        public boolean getLowercase();
+
+        @Config("remove")
+        @ConfigDefault("\"\"")
+        public String getRemove();
+
+        @Config("replace")
+        @ConfigDefault("{}")
+        public Map<String, String> getReplace();
+    }
+
+    public interface SkipIfTask extends Task
+    {
+        @Config("empty")
+        @ConfigDefault("false")
+        public boolean getEmpty();
+
+        @Config("ascii_only")
+        @ConfigDefault("false")
+        public boolean getAsciiOnly();
+
+        @Config("numeric")
+        @ConfigDefault("false")
+        public boolean getNumeric();
+
+        @Config("max_length")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxLength();
+
+        @Config("min_length")
+        @ConfigDefault("null")
+        public Optional<Integer> getMinLength();
+
+        @Config("column")
+        @ConfigDefault("null")
+        public Optional<String> getColumn();
+
+        @Config("in")
+        @ConfigDefault("null")
+        public Optional<List<String>> getIn();
+
+        @Config("not_in")
+        @ConfigDefault("null")
+        public Optional<List<String>> getNotIn();
+
+        @Config("fallback")
+        @ConfigDefault("\"null\"")
+        public String getFallback();
     }
 
     @Override
@@ -65,20 +212,85 @@ public class KuromojiFilterPlugin implements FilterPlugin
     {
         PluginTask task = config.loadConfig(PluginTask.class);
 
+        checkPositive("max_chunk_chars", task.getMaxChunkChars());
+        checkPositive("max_tokens", task.getMaxTokens());
+        checkPositive("max_chars", task.getMaxChars());
+        if (task.getMaxTokenizeMillis().isPresent() && !task.getMaxChunkChars().isPresent()) {
+            // the budget is checked between chunks, so a value without chunks is never routed
+            throw new ConfigException("max_tokenize_millis requires max_chunk_chars");
+        }
+
         Schema outputSchema = buildOutputSchema(task, inputSchema);
 
-        control.run(task.dump(), outputSchema);
+        // a task-only field is required by loadTask, so it is set even without the cache
+        task.setPersistentCacheFingerprint(task.getPersistentCachePath().isPresent() ? PersistentTokenizeCache.fingerprint(task) : 0L);
+
+        // held until the tasks finish so that the tasks in this JVM share the warmed tokenizer
+        TokenizerRegistry.Lease warmed = task.getWarmUp() ? TokenizerWarmUp.run(task) : null;
+
+        TaskMetrics.resetTotal();
+        long start = System.nanoTime();
+        try {
+            if (task.getPersistentCachePath().isPresent()) {
+                PersistentTokenizeCache.begin(task);
+            }
+            control.run(task.dump(), outputSchema);
+        }
+        finally {
+            if (task.getPersistentCachePath().isPresent()) {
+                PersistentTokenizeCache.commit(task);
+            }
+            if (warmed != null) {
+                warmed.close();
+            }
+        }
+        if (task.getMetrics()) {
+            TaskMetrics.reportTotal(System.nanoTime() - start, task.getMetricsPath().orNull());
+        }
     }
 
     @Override
     public PageOutput open(TaskSource taskSource, final Schema inputSchema, final Schema outputSchema, final PageOutput output)
     {
-        final String tokenizer = taskSource.loadTask(PluginTask.class).getTokenizer();
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
+        final String tokenizer = task.getTokenizer();
         logger.info("Tokenizer => {}", tokenizer);
-        if (tokenizer.equals("neologd")) {
-            return new NeologdPageOutput(taskSource, inputSchema, outputSchema, output);
+        final TokenizerRegistry.Lease lease = TokenizerRegistry.acquire(task, task.getBackgroundLoad());
+        if (!task.getPipeline()) {
+            try {
+                return new TokenizePageOutput(taskSource, lease, inputSchema, outputSchema, output);
+            }
+            catch (RuntimeException | Error e) {
+                lease.close();
+                throw e;
+            }
+        }
+
+        PageOutput downstream = new AsyncPageOutput(output, task.getPipelineQueueSize(), "kuromoji-output");
+        PageOutput tokenize;
+        try {
+            tokenize = new TokenizePageOutput(taskSource, lease, inputSchema, outputSchema, downstream);
+        }
+        catch (RuntimeException | Error e) {
+            lease.close();
+            downstream.close();
+            throw e;
+        }
+        try {
+            return new AsyncPageOutput(tokenize, task.getPipelineQueueSize(), "kuromoji-tokenize");
+        }
+        catch (RuntimeException | Error e) {
+            // closes the lease and downstream
+            tokenize.close();
+            throw e;
+        }
+    }
+
+    private static void checkPositive(String name, Optional<Integer> value)
+    {
+        if (value.isPresent() && value.get() <= 0) {
+            throw new ConfigException(String.format("%s must be positive: %d", name, value.get()));
         }
-        return new KuromojiPageOutput(taskSource, inputSchema, outputSchema, output);
     }
 
     /**
@@ -111,10 +323,10 @@ public class KuromojiFilterPlugin implements FilterPlugin
         }
 
         for (String key : task.getKeyNames()) {
-            for (Map<String, String> setting : task.getSettings()) {
-                String keyName = key + MoreObjects.firstNonNull(setting.get("suffix"), "");
-                Type type = "array".equals(setting.get("type")) ? Types.JSON : Types.STRING;
-                map.put(keyName, new Column(i++, keyName, type));
+            for (Map<String, Object> setting : task.getSettings()) {
+                OutputPlan.Setting outputSetting = OutputPlan.Setting.of(setting);
+                String keyName = key + outputSetting.getSuffix();
+                map.put(keyName, new Column(i++, keyName, outputSetting.getType()));
             }
         }
 
@@ -0,0 +1,114 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.JapaneseAnalyzer;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.tokenattributes.BaseFormAttribute;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.tokenattributes.InflectionAttribute;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.tokenattributes.PartOfSpeechAttribute;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.tokenattributes.ReadingAttribute;
+import org.embulk.filter.kuromoji.TokenBuffer.Field;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+/**
+ * Engine of the lucene NEologd {@link JapaneseAnalyzer}.
+ *
+ * The analyzer hands out the same token stream for every text on a thread, so its attributes
+ * are bound once per thread and only the attributes of the requested fields are added. A field
+ * the dictionary has no value for is left absent.
+ */
+public class NeologdEngine implements TokenizerEngine
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+
+    private final JapaneseAnalyzer analyzer;
+    private final Set<Field> fields;
+    private final PartOfSpeechFilter partOfSpeechFilter;
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>()
+    {
+        @Override
+        protected Context initialValue()
+        {
+            return new Context();
+        }
+    };
+
+    public NeologdEngine(JapaneseAnalyzer analyzer, Set<Field> fields, PartOfSpeechFilter partOfSpeechFilter)
+    {
+        this.analyzer = analyzer;
+        this.fields = fields;
+        this.partOfSpeechFilter = partOfSpeechFilter;
+    }
+
+    @Override
+    public void tokenize(String text, TokenBuffer tokens)
+    {
+        contexts.get().tokenize(text, tokens);
+    }
+
+    private class Context
+    {
+        private TokenStream tokenStream;
+        private CharTermAttribute charAttr;
+        private BaseFormAttribute baseAttr;
+        private ReadingAttribute readAttr;
+        private InflectionAttribute inflectionAttr;
+        private PartOfSpeechAttribute posAttr;
+
+        void tokenize(String text, TokenBuffer tokens)
+        {
+            try (TokenStream stream = analyzer.tokenStream("", text)) {
+                if (stream != tokenStream) {
+                    bind(stream);
+                }
+                stream.reset();
+                while (stream.incrementToken()) {
+                    if (partOfSpeechFilter != null && !partOfSpeechFilter.accept(posAttr.getPartOfSpeech())) {
+                        tokens.drop();
+                        continue;
+                    }
+                    tokens.add();
+                    tokens.set(Field.SURFACE, charAttr.buffer(), 0, charAttr.length());
+                    if (baseAttr != null) {
+                        tokens.set(Field.BASE_FORM, baseAttr.getBaseForm());
+                    }
+                    if (readAttr != null) {
+                        if (fields.contains(Field.READING)) {
+                            tokens.set(Field.READING, readAttr.getReading());
+                        }
+                        if (fields.contains(Field.PRONUNCIATION)) {
+                            tokens.set(Field.PRONUNCIATION, readAttr.getPronunciation());
+                        }
+                    }
+                    if (inflectionAttr != null) {
+                        String type = inflectionAttr.getInflectionType();
+                        tokens.set(Field.INFLECTION, type == null ? "*" : type + "-" + inflectionAttr.getInflectionForm());
+                    }
+                    if (fields.contains(Field.PART_OF_SPEECH)) {
+                        tokens.set(Field.PART_OF_SPEECH, posAttr.getPartOfSpeech());
+                    }
+                }
+                stream.end();
+            }
+            catch (IOException e) {
+                logger.error("neologd error", e);
+            }
+        }
+
+        private void bind(TokenStream stream)
+        {
+            this.tokenStream = stream;
+            this.charAttr = stream.addAttribute(CharTermAttribute.class);
+            this.baseAttr = fields.contains(Field.BASE_FORM) ? stream.addAttribute(BaseFormAttribute.class) : null;
+            this.readAttr = fields.contains(Field.READING) || fields.contains(Field.PRONUNCIATION)
+                    ? stream.addAttribute(ReadingAttribute.class) : null;
+            this.inflectionAttr = fields.contains(Field.INFLECTION) ? stream.addAttribute(InflectionAttribute.class) : null;
+            this.posAttr = partOfSpeechFilter != null || fields.contains(Field.PART_OF_SPEECH)
+                    ? stream.addAttribute(PartOfSpeechAttribute.class) : null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over the last {@code max} words of a value that builds word n-grams (shingles).
+ *
+ * When a word is pushed, every shingle of {@code min} to {@code max} words ending with it is
+ * built into a reused char buffer, shortest first. Not thread safe; use one per thread.
+ */
+public class NgramWindow
+{
+    /**
+     * Receives each shingle. The chars are only valid during the call.
+     */
+    public interface Sink
+    {
+        void shingle(char[] buffer, int offset, int length);
+    }
+
+    private final int min;
+    private final int max;
+    private final char[] separator;
+    private final int maxShingles;
+
+    private final char[][] words;
+    private final int[] lengths;
+    private char[] shingle = new char[64];
+    private int pushed;
+    private int emitted;
+
+    public NgramWindow(OutputPlan.Ngram ngram)
+    {
+        this.min = ngram.getMin();
+        this.max = ngram.getMax();
+        this.separator = ngram.getSeparator().toCharArray();
+        this.maxShingles = ngram.getMaxShingles();
+        this.words = new char[max][16];
+        this.lengths = new int[max];
+    }
+
+    public void reset()
+    {
+        pushed = 0;
+        emitted = 0;
+    }
+
+    public void push(CharSequence word, Sink sink)
+    {
+        int length = word.length();
+        char[] slot = slot(length);
+        for (int i = 0; i < length; i++) {
+            slot[i] = word.charAt(i);
+        }
+        emit(sink);
+    }
+
+    public void push(char[] buffer, int offset, int length, Sink sink)
+    {
+        System.arraycopy(buffer, offset, slot(length), 0, length);
+        emit(sink);
+    }
+
+    private char[] slot(int length)
+    {
+        int slot = pushed % max;
+        if (words[slot].length < length) {
+            words[slot] = new char[Math.max(words[slot].length * 2, length)];
+        }
+        lengths[slot] = length;
+        return words[slot];
+    }
+
+    private void emit(Sink sink)
+    {
+        pushed++;
+        int available = Math.min(pushed, max);
+        for (int n = min; n <= available && emitted < maxShingles; n++) {
+            int length = 0;
+            for (int k = pushed - n; k < pushed; k++) {
+                int slot = k % max;
+                if (k > pushed - n) {
+                    length = put(length, separator, separator.length);
+                }
+                length = put(length, words[slot], lengths[slot]);
+            }
+            sink.shingle(shingle, 0, length);
+            emitted++;
+        }
+    }
+
+    private int put(int position, char[] chars, int length)
+    {
+        if (position + length > shingle.length) {
+            shingle = Arrays.copyOf(shingle, Math.max(shingle.length * 2, position + length));
+        }
+        System.arraycopy(chars, 0, shingle, position, length);
+        return position + length;
+    }
+}
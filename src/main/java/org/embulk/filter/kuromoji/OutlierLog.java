@@ -0,0 +1,56 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Counts the values routed to {@link CharClassSegmenter} and keeps the first few as samples for
+ * the log at finish. Thread safe.
+ */
+public class OutlierLog
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final int MAX_SAMPLES = 5;
+    private static final int SAMPLE_CHARS = 80;
+
+    private final AtomicLong overChars = new AtomicLong();
+    private final AtomicLong overTime = new AtomicLong();
+    private final List<String> samples = Lists.newArrayList();
+
+    /**
+     * @param source
+     * @param timedOut true when the time budget ran out, false when the value is longer than max_chars
+     * @param elapsedNanos time spent in the tokenizer before the value was routed
+     */
+    public void add(String source, boolean timedOut, long elapsedNanos)
+    {
+        (timedOut ? overTime : overChars).incrementAndGet();
+        synchronized (samples) {
+            if (samples.size() < MAX_SAMPLES) {
+                String head = source.length() > SAMPLE_CHARS ? source.substring(0, SAMPLE_CHARS) + "..." : source;
+                samples.add(String.format("%s after %d ms, %d chars: %s",
+                        timedOut ? "max_tokenize_millis" : "max_chars", elapsedNanos / 1000000, source.length(), head));
+            }
+        }
+    }
+
+    public void logStats()
+    {
+        long total = overChars.get() + overTime.get();
+        if (total == 0) {
+            return;
+        }
+        logger.warn("Routed {} outlier values to char class segmentation (max_chars: {}, max_tokenize_millis: {})",
+                total, overChars.get(), overTime.get());
+        synchronized (samples) {
+            for (String sample : samples) {
+                logger.warn("Outlier sample: {}", sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Reusable per-setting accumulator of extracted words.
+ *
+ * Words are appended as they are produced, so a value can be tokenized chunk by chunk without
+ * keeping its tokens. Ids of {@code hashed} / {@code vocab_id} settings are kept in primitive
+ * arrays and terms of {@code term_frequency} settings in a {@link TermCounter}; only the final
+ * array or map value is created. Settings with {@code ngram} emit the shingles built by an
+ * {@link NgramWindow} instead of the words. Not thread safe; use one per thread.
+ */
+public class OutputBuffer
+{
+    private final OutputPlan.Setting[] settings;
+    private final StringBuilder[] texts;
+    private final List<List<Value>> arrays;
+    private final long[][] ids;
+    private final TermCounter[] counters;
+    private final NgramWindow[] windows;
+    private final NgramWindow.Sink[] sinks;
+    private final int[] counts;
+    private final TokenPool pool;
+
+    public OutputBuffer(OutputPlan.Setting[] settings)
+    {
+        this(settings, null);
+    }
+
+    /**
+     * @param settings
+     * @param pool intern pool of the words of array settings. nullable
+     */
+    public OutputBuffer(OutputPlan.Setting[] settings, TokenPool pool)
+    {
+        this.settings = settings;
+        this.pool = pool;
+        this.texts = new StringBuilder[settings.length];
+        this.arrays = Lists.newArrayListWithCapacity(settings.length);
+        this.ids = new long[settings.length][];
+        this.counters = new TermCounter[settings.length];
+        this.windows = new NgramWindow[settings.length];
+        this.sinks = new NgramWindow.Sink[settings.length];
+        this.counts = new int[settings.length];
+        for (int j = 0; j < settings.length; j++) {
+            texts[j] = new StringBuilder();
+            arrays.add(Lists.<Value>newArrayList());
+            ids[j] = settings[j].isId() ? new long[16] : null;
+            if (settings[j].getOutputType() == OutputPlan.OutputType.TERM_FREQUENCY) {
+                counters[j] = new TermCounter(settings[j].getTopK(), settings[j].getMinCount());
+            }
+            if (settings[j].getNgram() != null) {
+                final int index = j;
+                windows[j] = new NgramWindow(settings[j].getNgram());
+                sinks[j] = new NgramWindow.Sink()
+                {
+                    @Override
+                    public void shingle(char[] buffer, int offset, int length)
+                    {
+                        emit(index, buffer, offset, length);
+                    }
+                };
+            }
+        }
+    }
+
+    public void reset()
+    {
+        for (int j = 0; j < settings.length; j++) {
+            texts[j].setLength(0);
+            arrays.get(j).clear();
+            counts[j] = 0;
+            if (counters[j] != null) {
+                counters[j].reset();
+            }
+            if (windows[j] != null) {
+                windows[j].reset();
+            }
+        }
+    }
+
+    /**
+     * @param j index of the setting
+     * @param word
+     */
+    public void append(int j, String word)
+    {
+        if (windows[j] != null) {
+            windows[j].push(word, sinks[j]);
+        }
+        else {
+            emit(j, word);
+        }
+    }
+
+    /**
+     * Appends a word from a char buffer; no string is created for string settings.
+     *
+     * @param j index of the setting
+     * @param buffer
+     * @param offset
+     * @param length
+     */
+    public void append(int j, char[] buffer, int offset, int length)
+    {
+        if (windows[j] != null) {
+            windows[j].push(buffer, offset, length, sinks[j]);
+        }
+        else {
+            emit(j, buffer, offset, length);
+        }
+    }
+
+    private void emit(int j, String word)
+    {
+        if (counters[j] != null) {
+            counters[j].add(word);
+        }
+        else if (settings[j].isId()) {
+            addId(j, settings[j].id(word));
+        }
+        else if (settings[j].isJson()) {
+            arrays.get(j).add(pool != null ? pool.value(word) : ValueFactory.newString(word));
+        }
+        else {
+            delimit(j).append(word);
+        }
+    }
+
+    private void emit(int j, char[] buffer, int offset, int length)
+    {
+        if (counters[j] != null) {
+            counters[j].add(buffer, offset, length);
+        }
+        else if (settings[j].isId()) {
+            addId(j, settings[j].id(buffer, offset, length));
+        }
+        else if (settings[j].isJson()) {
+            arrays.get(j).add(pool != null ? pool.value(buffer, offset, length) : ValueFactory.newString(new String(buffer, offset, length)));
+        }
+        else {
+            delimit(j).append(buffer, offset, length);
+        }
+    }
+
+    private void addId(int j, long id)
+    {
+        if (id < 0) {
+            return;
+        }
+        if (counts[j] == ids[j].length) {
+            ids[j] = Arrays.copyOf(ids[j], counts[j] * 2);
+        }
+        ids[j][counts[j]++] = id;
+    }
+
+    private StringBuilder delimit(int j)
+    {
+        if (counts[j]++ > 0) {
+            texts[j].append(settings[j].getDelimiter());
+        }
+        return texts[j];
+    }
+
+    /**
+     * @return outputs for each setting
+     */
+    public Object[] build()
+    {
+        Object[] outputs = new Object[settings.length];
+        for (int j = 0; j < settings.length; j++) {
+            if (counters[j] != null) {
+                outputs[j] = counters[j].build(pool);
+            }
+            else if (settings[j].isId()) {
+                outputs[j] = buildIds(j);
+            }
+            else {
+                outputs[j] = settings[j].isJson() ? ValueFactory.newArray(arrays.get(j)) : texts[j].toString();
+            }
+        }
+        return outputs;
+    }
+
+    private Value buildIds(int j)
+    {
+        Value[] values = new Value[counts[j]];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = ValueFactory.newInteger(ids[j][k]);
+        }
+        return ValueFactory.newArray(values, true);
+    }
+}
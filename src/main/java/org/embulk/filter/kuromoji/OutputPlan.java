@@ -0,0 +1,464 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.embulk.config.ConfigException;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+/**
+ * {@code settings} compiled once per task.
+ *
+ * Output columns, methods and delimiters are resolved up front so that the per-record loop
+ * does no schema lookups, string comparisons or task proxy calls.
+ */
+public class OutputPlan
+{
+    public enum Method
+    {
+        SURFACE_FORM("surface_form", TokenBuffer.Field.SURFACE),
+        BASE_FORM("base_form", TokenBuffer.Field.BASE_FORM),
+        READING("reading", TokenBuffer.Field.READING),
+        PRONUNCIATION("pronunciation", TokenBuffer.Field.PRONUNCIATION),
+        INFLECTION("inflection", TokenBuffer.Field.INFLECTION),
+        PART_OF_SPEECH("part_of_speech", TokenBuffer.Field.PART_OF_SPEECH);
+
+        private final String name;
+        private final TokenBuffer.Field field;
+
+        Method(String name, TokenBuffer.Field field)
+        {
+            this.name = name;
+            this.field = field;
+        }
+
+        public TokenBuffer.Field getField()
+        {
+            return field;
+        }
+
+        public static Method of(String name)
+        {
+            for (Method method : values()) {
+                if (method.name.equals(name)) {
+                    return method;
+                }
+            }
+            throw new ConfigException(String.format("Unknown method '%s'. Supported methods are surface_form, base_form, reading, pronunciation, inflection and part_of_speech.", name));
+        }
+    }
+
+    public enum OutputType
+    {
+        STRING("string"),
+        ARRAY("array"),
+        HASHED("hashed"),
+        VOCAB_ID("vocab_id"),
+        TERM_FREQUENCY("term_frequency");
+
+        private final String name;
+
+        OutputType(String name)
+        {
+            this.name = name;
+        }
+
+        public static OutputType of(String name)
+        {
+            if (name == null) {
+                return STRING;
+            }
+            for (OutputType type : values()) {
+                if (type.name.equals(name)) {
+                    return type;
+                }
+            }
+            throw new ConfigException(String.format("Unknown type '%s'. Supported types are string, array, hashed, vocab_id and term_frequency.", name));
+        }
+    }
+
+    /**
+     * {@code ngram: {min: 1, max: 3, separator: "_", max_shingles: 1000}} of a setting.
+     */
+    public static class Ngram
+    {
+        private final int min;
+        private final int max;
+        private final String separator;
+        private final int maxShingles;
+
+        private Ngram(Map<String, ?> ngram)
+        {
+            this.min = (int) Setting.parseLong(ngram, "min", 1);
+            this.max = (int) Setting.parseLong(ngram, "max", Math.max(min, 2));
+            this.separator = MoreObjects.firstNonNull(Setting.string(ngram, "separator"), "_");
+            this.maxShingles = (int) Setting.parseLong(ngram, "max_shingles", Integer.MAX_VALUE);
+            if (min < 1 || max < min) {
+                throw new ConfigException(String.format("ngram requires 1 <= min <= max: min=%d, max=%d", min, max));
+            }
+            if (maxShingles < 1) {
+                throw new ConfigException(String.format("ngram max_shingles must be positive: %d", maxShingles));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Ngram of(Object ngram)
+        {
+            if (ngram == null) {
+                return null;
+            }
+            if (!(ngram instanceof Map)) {
+                throw new ConfigException(String.format("ngram must be a map of min, max, separator and max_shingles: %s", ngram));
+            }
+            return new Ngram((Map<String, ?>) ngram);
+        }
+
+        public int getMin()
+        {
+            return min;
+        }
+
+        public int getMax()
+        {
+            return max;
+        }
+
+        public String getSeparator()
+        {
+            return separator;
+        }
+
+        public int getMaxShingles()
+        {
+            return maxShingles;
+        }
+    }
+
+    public static class Setting
+    {
+        private static final long DEFAULT_HASH_DIMENSION = 1L << 20;
+        private static final Map<String, Map<String, Long>> vocabularies = Maps.newHashMap();
+
+        private final String suffix;
+        private final Method method;
+        private final String delimiter;
+        private final OutputType type;
+        private final long hashDimension;
+        private final String vocabPath;
+        private final Map<String, Long> vocabulary;
+        private final Long unknownId;
+        private final int topK;
+        private final int minCount;
+        private final Ngram ngram;
+
+        private Setting(Map<String, ?> setting, boolean loadVocabulary)
+        {
+            this.suffix = MoreObjects.firstNonNull(string(setting, "suffix"), "");
+            this.method = Method.of(string(setting, "method"));
+            this.delimiter = MoreObjects.firstNonNull(string(setting, "delimiter"), ",");
+            this.type = OutputType.of(string(setting, "type"));
+            this.hashDimension = parseLong(setting, "hash_dimension", DEFAULT_HASH_DIMENSION);
+            if (hashDimension <= 0) {
+                throw new ConfigException(String.format("hash_dimension must be positive: %d", hashDimension));
+            }
+            if (type == OutputType.VOCAB_ID) {
+                this.vocabPath = string(setting, "vocab_path");
+                if (vocabPath == null) {
+                    throw new ConfigException("vocab_path is required for type: vocab_id");
+                }
+                if (!new File(vocabPath).isFile()) {
+                    throw new ConfigException(String.format("vocab_path %s is not a file", vocabPath));
+                }
+                this.vocabulary = loadVocabulary ? vocabulary(vocabPath) : null;
+                this.unknownId = setting.get("unknown_id") == null ? null : parseLong(setting, "unknown_id", 0);
+            }
+            else {
+                this.vocabPath = null;
+                this.vocabulary = null;
+                this.unknownId = null;
+            }
+            this.topK = (int) parseLong(setting, "top_k", 0);
+            this.minCount = (int) parseLong(setting, "min_count", 1);
+            this.ngram = Ngram.of(setting.get("ngram"));
+        }
+
+        private static String string(Map<String, ?> setting, String name)
+        {
+            Object value = setting.get(name);
+            return value == null ? null : String.valueOf(value);
+        }
+
+        private static long parseLong(Map<String, ?> setting, String name, long defaultValue)
+        {
+            String value = string(setting, name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e) {
+                throw new ConfigException(String.format("%s must be an integer: %s", name, value));
+            }
+        }
+
+        /**
+         * @param path
+         * @return vocabulary of the file shared by the tasks while the file is unchanged
+         */
+        private static Map<String, Long> vocabulary(String path)
+        {
+            String key = new File(path).getAbsolutePath() + '@' + new File(path).lastModified();
+            synchronized (vocabularies) {
+                Map<String, Long> vocabulary = vocabularies.get(key);
+                if (vocabulary == null) {
+                    vocabulary = loadVocabulary(path);
+                    vocabularies.put(key, vocabulary);
+                }
+                return vocabulary;
+            }
+        }
+
+        /**
+         * @param path one token per line. the id of a token is its line number starting at 0.
+         * @return
+         */
+        private static Map<String, Long> loadVocabulary(String path)
+        {
+            Map<String, Long> vocabulary = Maps.newHashMap();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), Charsets.UTF_8))) {
+                String line;
+                long id = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (!vocabulary.containsKey(line)) {
+                        vocabulary.put(line, id);
+                    }
+                    id++;
+                }
+            }
+            catch (IOException e) {
+                throw new ConfigException(String.format("Failed to read vocab_path %s", path), e);
+            }
+            return vocabulary;
+        }
+
+        /**
+         * @param setting
+         * @return validated setting without its vocabulary, for the schema and the fingerprint
+         */
+        public static Setting of(Map<String, ?> setting)
+        {
+            return new Setting(setting, false);
+        }
+
+        /**
+         * @param setting
+         * @return setting with its vocabulary loaded, for the tasks
+         */
+        public static Setting load(Map<String, ?> setting)
+        {
+            return new Setting(setting, true);
+        }
+
+        public String getSuffix()
+        {
+            return suffix;
+        }
+
+        public Method getMethod()
+        {
+            return method;
+        }
+
+        public String getDelimiter()
+        {
+            return delimiter;
+        }
+
+        /**
+         * @return vocab_path of a vocab_id setting, otherwise null
+         */
+        public String getVocabPath()
+        {
+            return vocabPath;
+        }
+
+        public OutputType getOutputType()
+        {
+            return type;
+        }
+
+        public boolean isJson()
+        {
+            return type != OutputType.STRING;
+        }
+
+        /**
+         * @return true when words are emitted as ids rather than strings
+         */
+        public boolean isId()
+        {
+            return type == OutputType.HASHED || type == OutputType.VOCAB_ID;
+        }
+
+        /**
+         * @return max number of terms of term_frequency. 0 for all.
+         */
+        public int getTopK()
+        {
+            return topK;
+        }
+
+        public int getMinCount()
+        {
+            return minCount;
+        }
+
+        /**
+         * @return n-gram stage of this setting, or null when words are emitted as they are
+         */
+        public Ngram getNgram()
+        {
+            return ngram;
+        }
+
+        /**
+         * @param word
+         * @return id of the word, or -1 when it is not in the vocabulary and no unknown_id is set
+         */
+        public long id(CharSequence word)
+        {
+            if (type == OutputType.HASHED) {
+                return TokenHasher.bucket(TokenHasher.murmur3(word), hashDimension);
+            }
+            Long id = vocabulary.get(word.toString());
+            return id != null ? id : unknownId != null ? unknownId : -1;
+        }
+
+        /**
+         * Same as {@link #id(CharSequence)}; hashed ids are computed without creating a string.
+         */
+        public long id(char[] buffer, int offset, int length)
+        {
+            if (type == OutputType.HASHED) {
+                return TokenHasher.bucket(TokenHasher.murmur3(buffer, offset, length), hashDimension);
+            }
+            return id(new String(buffer, offset, length));
+        }
+
+        public Type getType()
+        {
+            return isJson() ? Types.JSON : Types.STRING;
+        }
+    }
+
+    private final Column[] keyColumns;
+    private final Setting[] settings;
+    private final Column[][] outputColumns;
+
+    private OutputPlan(Column[] keyColumns, Setting[] settings, Column[][] outputColumns)
+    {
+        this.keyColumns = keyColumns;
+        this.settings = settings;
+        this.outputColumns = outputColumns;
+    }
+
+    /**
+     * @param task
+     * @param inputSchema
+     * @param outputSchema
+     * @return
+     */
+    public static OutputPlan compile(PluginTask task, Schema inputSchema, Schema outputSchema)
+    {
+        List<String> keyNames = task.getKeyNames();
+        List<Map<String, Object>> settingMaps = task.getSettings();
+
+        Column[] keyColumns = new Column[keyNames.size()];
+        Setting[] settings = new Setting[settingMaps.size()];
+        Column[][] outputColumns = new Column[keyNames.size()][settingMaps.size()];
+
+        for (int j = 0; j < settings.length; j++) {
+            settings[j] = Setting.load(settingMaps.get(j));
+        }
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyColumns[i] = inputSchema.lookupColumn(keyNames.get(i));
+            for (int j = 0; j < settings.length; j++) {
+                outputColumns[i][j] = outputSchema.lookupColumn(keyNames.get(i) + settings[j].getSuffix());
+            }
+        }
+        return new OutputPlan(keyColumns, settings, outputColumns);
+    }
+
+    public Column[] getKeyColumns()
+    {
+        return keyColumns;
+    }
+
+    public Setting[] getSettings()
+    {
+        return settings;
+    }
+
+    /**
+     * @return token fields read by the settings
+     */
+    public Set<TokenBuffer.Field> getFields()
+    {
+        Set<TokenBuffer.Field> fields = EnumSet.of(TokenBuffer.Field.SURFACE);
+        for (Setting setting : settings) {
+            fields.add(setting.getMethod().getField());
+        }
+        return fields;
+    }
+
+    /**
+     * Writes nulls to the outputs of one key column.
+     *
+     * @param builder
+     * @param keyIndex index of the key column
+     */
+    public void writeNull(PageBuilder builder, int keyIndex)
+    {
+        for (Column column : outputColumns[keyIndex]) {
+            builder.setNull(column);
+        }
+    }
+
+    /**
+     * Writes the outputs of one key column.
+     *
+     * @param builder
+     * @param keyIndex index of the key column
+     * @param outputs one element per setting. {@link String} for string settings, {@link Value} for json settings.
+     */
+    public void write(PageBuilder builder, int keyIndex, Object[] outputs)
+    {
+        Column[] columns = outputColumns[keyIndex];
+        for (int j = 0; j < settings.length; j++) {
+            if (settings[j].isJson()) {
+                builder.setJson(columns[j], (Value) outputs[j]);
+            }
+            else {
+                builder.setString(columns[j], (String) outputs[j]);
+            }
+        }
+    }
+}
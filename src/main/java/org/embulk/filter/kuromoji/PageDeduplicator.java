@@ -0,0 +1,95 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Map;
+
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reuses the outputs of a source value repeated within a page, or repeated by the next record
+ * of a key column across pages.
+ *
+ * Embulk pages hold their strings as objects, so a repeated value is usually the same string
+ * instance and is found by reference before its hash is needed. Outputs are kept only until the
+ * next page. Not thread safe; use one per page output.
+ */
+public class PageDeduplicator
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+
+    private final String[] lastSources;
+    private final Object[][] lastOutputs;
+    private final Map<String, Object[]> page = Maps.newHashMap();
+    private long lookups;
+    private long hits;
+
+    /**
+     * @param keyColumns number of key columns
+     */
+    public PageDeduplicator(int keyColumns)
+    {
+        this.lastSources = new String[keyColumns];
+        this.lastOutputs = new Object[keyColumns][];
+    }
+
+    public void newPage()
+    {
+        page.clear();
+    }
+
+    /**
+     * @param keyIndex
+     * @param source
+     * @return outputs of the same source seen before, or null
+     */
+    public Object[] get(int keyIndex, String source)
+    {
+        if (source == null) {
+            return null;
+        }
+        lookups++;
+        String last = lastSources[keyIndex];
+        if (last == source || (last != null && last.length() == source.length() && last.equals(source))) {
+            hits++;
+            return lastOutputs[keyIndex];
+        }
+        Object[] outputs = page.get(source);
+        if (outputs != null) {
+            hits++;
+            remember(keyIndex, source, outputs);
+        }
+        return outputs;
+    }
+
+    /**
+     * Counts a value the caller deduplicated by itself, such as one waiting to be tokenized.
+     */
+    public void countHit()
+    {
+        hits++;
+    }
+
+    public void put(int keyIndex, String source, Object[] outputs)
+    {
+        if (source == null) {
+            return;
+        }
+        page.put(source, outputs);
+        remember(keyIndex, source, outputs);
+    }
+
+    private void remember(int keyIndex, String source, Object[] outputs)
+    {
+        lastSources[keyIndex] = source;
+        lastOutputs[keyIndex] = outputs;
+    }
+
+    public void logStats()
+    {
+        if (lookups > 0) {
+            logger.info("Deduplicated {} of {} values ({}%)", hits, lookups, String.format("%.1f", hits * 100.0 / lookups));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Tokenizes the values of one page on a pool of worker threads.
+ *
+ * The values are split into contiguous slices, one per worker, and the outputs are returned in
+ * the original order. {@link #extractAll(String[], boolean[])} blocks until the whole page is
+ * done, so at most one page per task is in flight. Workers run in the Exec session of the task,
+ * as engines and their loggers may be created lazily on a worker.
+ */
+public class ParallelExtractor implements AutoCloseable
+{
+    public interface Extractor
+    {
+        /**
+         * Must be thread safe.
+         *
+         * @param source
+         * @return outputs for each setting
+         */
+        Object[] extract(String source);
+
+        /**
+         * @param outputs returned by the last {@link #extract(String)} on the calling thread
+         * @return false when the outputs must not be cached, e.g. they depend on the time budget
+         */
+        boolean isCacheable(Object[] outputs);
+    }
+
+    private final Extractor extractor;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final ExecSession session;
+
+    public ParallelExtractor(Extractor extractor, int parallelism)
+    {
+        this.extractor = extractor;
+        this.session = Exec.session();
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("kuromoji-worker-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @param sources
+     * @param cacheable filled with {@link Extractor#isCacheable(Object[])} of each output
+     * @return outputs for each source, in the same order
+     */
+    public Object[][] extractAll(final String[] sources, final boolean[] cacheable)
+    {
+        final Object[][] outputs = new Object[sources.length][];
+        final int sliceSize = (sources.length + parallelism - 1) / parallelism;
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(parallelism);
+        for (int start = 0; start < sources.length; start += sliceSize) {
+            final int from = start;
+            final int to = Math.min(start + sliceSize, sources.length);
+            futures.add(executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    try {
+                        return Exec.doWith(session, new ExecAction<Void>()
+                        {
+                            @Override
+                            public Void run()
+                            {
+                                for (int i = from; i < to; i++) {
+                                    outputs[i] = extractor.extract(sources[i]);
+                                    cacheable[i] = extractor.isCacheable(outputs[i]);
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                    catch (ExecutionException e) {
+                        throw Throwables.propagate(e.getCause());
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e) {
+            cancel(futures);
+            throw Throwables.propagate(e.getCause());
+        }
+        return outputs;
+    }
+
+    private void cancel(List<Future<Void>> futures)
+    {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,159 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+
+import com.google.common.base.Splitter;
+
+/**
+ * {@code ok_parts_of_speech} / {@code ng_parts_of_speech} compiled into tries over the part of
+ * speech levels.
+ *
+ * An entry such as {@code 名詞} or {@code 名詞-固有名詞-人名} matches a token whose leading levels are
+ * equal to the entry, for both tokenizers. A token is kept when it matches an ok entry (or there
+ * are none) and matches no ng entry. Matching reads one level at a time and stops at the depth of
+ * the trie, so a token costs at most one lookup per configured level.
+ */
+public class PartOfSpeechFilter
+{
+    private static final char SEPARATOR = '-';
+    private static final int MAX_LEVELS = 4;
+
+    private final Node allow;
+    private final Node deny;
+
+    private PartOfSpeechFilter(Node allow, Node deny)
+    {
+        this.allow = allow;
+        this.deny = deny;
+    }
+
+    /**
+     * @param task
+     * @return null when no part of speech filter is configured
+     */
+    public static PartOfSpeechFilter of(PluginTask task)
+    {
+        Node allow = compile(task.getOkPartsOfSpeech().orNull());
+        Node deny = compile(task.getNgPartsOfSpeech().orNull());
+        if (allow == null && deny == null) {
+            return null;
+        }
+        return new PartOfSpeechFilter(allow, deny);
+    }
+
+    private static Node compile(List<String> partsOfSpeech)
+    {
+        if (partsOfSpeech == null) {
+            return null;
+        }
+        Node root = new Node();
+        for (String partOfSpeech : partsOfSpeech) {
+            Node node = root;
+            for (String level : Splitter.on(SEPARATOR).split(partOfSpeech)) {
+                node = node.child(level);
+            }
+            node.terminal = true;
+        }
+        return root;
+    }
+
+    /**
+     * @param features {@code getAllFeaturesArray()} of a kuromoji token
+     * @return
+     */
+    public boolean accept(String[] features)
+    {
+        return (allow == null || matches(allow, features)) && (deny == null || !matches(deny, features));
+    }
+
+    /**
+     * @param partOfSpeech NEologd part of speech such as {@code 名詞-固有名詞-一般}
+     * @return
+     */
+    public boolean accept(String partOfSpeech)
+    {
+        return (allow == null || matches(allow, partOfSpeech)) && (deny == null || !matches(deny, partOfSpeech));
+    }
+
+    private static boolean matches(Node root, String[] features)
+    {
+        Node node = root;
+        for (int depth = 0; depth < MAX_LEVELS; depth++) {
+            node = node.find(KuromojiEngine.feature(features, KuromojiEngine.PART_OF_SPEECH_LEVEL_1 + depth));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(Node root, String partOfSpeech)
+    {
+        Node node = root;
+        int start = 0;
+        while (start <= partOfSpeech.length()) {
+            int end = partOfSpeech.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = partOfSpeech.length();
+            }
+            node = node.find(partOfSpeech, start, end - start);
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static class Node
+    {
+        private String[] labels = new String[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(String label)
+        {
+            Node node = find(label);
+            if (node == null) {
+                node = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = label;
+                children[children.length - 1] = node;
+            }
+            return node;
+        }
+
+        Node find(String label)
+        {
+            if (label == null) {
+                return null;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i].equals(label)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node find(String text, int offset, int length)
+        {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i].length() == length && text.regionMatches(offset, labels[i], 0, length)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
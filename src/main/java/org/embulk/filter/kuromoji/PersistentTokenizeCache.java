@@ -0,0 +1,417 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+import org.slf4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * On-disk cache of extracted outputs reused across runs ({@code persistent_cache_path}).
+ *
+ * The file is a header followed by append-only records:
+ * <pre>
+ * header: magic(int) version(int) fingerprint(long)
+ * record: hash(long) keyLength(int) valueLength(int) key(UTF-8 source) value(msgpack array of outputs)
+ * </pre>
+ * The fingerprint covers the tokenizer, mode, user dictionary and vocab_path contents and every
+ * option that changes the outputs; a file with another fingerprint is ignored and replaced. The file is
+ * memory-mapped read only and shared by the tasks of the JVM with the same path and fingerprint,
+ * and a read only cache is dropped when the last of them is closed. Records created by this run are
+ * kept in memory and written at the end of the transaction, when the file is rewritten with the
+ * new and the reused records first, bounded by {@code persistent_cache_max_bytes}. Only the JVM
+ * of the transaction commits, so the tasks of other JVMs (distributed executors) read the file
+ * without collecting new records.
+ */
+public class PersistentTokenizeCache
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final int MAGIC = 0x4b524d4a;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 16;
+    // keyed by path and fingerprint
+    private static final Map<String, PersistentTokenizeCache> caches = Maps.newHashMap();
+    // keys of the transactions running in this JVM
+    private static final Set<String> transactions = Sets.newHashSet();
+
+    private final String key;
+    private final File file;
+    private final long fingerprint;
+    private final long maxBytes;
+    private final boolean writable;
+    private final MappedByteBuffer mapped;
+    private final Map<Long, Integer> index;
+    private final Set<Integer> reused = Sets.newConcurrentHashSet();
+    private final Map<String, byte[]> added = new ConcurrentHashMap<>();
+    private final AtomicLong addedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int references;
+
+    private PersistentTokenizeCache(String key, File file, long fingerprint, long maxBytes, boolean writable)
+    {
+        this.key = key;
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        this.writable = writable;
+        this.index = new ConcurrentHashMap<>();
+        this.mapped = map();
+    }
+
+    /**
+     * @param task
+     * @return fingerprint of everything that changes the outputs for a source text
+     */
+    public static long fingerprint(PluginTask task)
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+            .putInt(VERSION)
+            .putString(TokenizerRegistry.buildKey(task), Charsets.UTF_8)
+            .putString(String.valueOf(task.getSettings()), Charsets.UTF_8)
+            .putString(String.valueOf(task.getOkPartsOfSpeech().orNull()), Charsets.UTF_8)
+            .putString(String.valueOf(task.getNgPartsOfSpeech().orNull()), Charsets.UTF_8)
+            .putString(String.valueOf(task.getMaxChunkChars().orNull()), Charsets.UTF_8)
+            .putString(String.valueOf(task.getMaxTokens().orNull()), Charsets.UTF_8)
+            .putString(String.valueOf(task.getMaxChars().orNull()), Charsets.UTF_8)
+            .putString(task.getNormalize().isPresent() ? task.getNormalize().get().dump().toString() : "", Charsets.UTF_8);
+        if (task.getDictionaryPath().isPresent()) {
+            putFile(hasher, task.getDictionaryPath().get());
+        }
+        for (Map<String, Object> setting : task.getSettings()) {
+            String vocabPath = OutputPlan.Setting.of(setting).getVocabPath();
+            if (vocabPath != null) {
+                putFile(hasher, vocabPath);
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static void putFile(Hasher hasher, String path)
+    {
+        try {
+            hasher.putBytes(Files.readAllBytes(new File(path).toPath()));
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static String key(PluginTask task)
+    {
+        return task.getPersistentCachePath().get() + "@" + task.getPersistentCacheFingerprint();
+    }
+
+    /**
+     * Marks {@code persistent_cache_path} as committed by this JVM. Called at the beginning of the transaction.
+     *
+     * @param task
+     */
+    public static void begin(PluginTask task)
+    {
+        synchronized (caches) {
+            transactions.add(key(task));
+        }
+    }
+
+    /**
+     * @param task
+     * @return the cache of {@code persistent_cache_path} shared by the tasks of this JVM. read only
+     *     when the transaction runs in another JVM. must be released by {@link #release(PersistentTokenizeCache)}.
+     */
+    public static PersistentTokenizeCache open(PluginTask task)
+    {
+        String path = task.getPersistentCachePath().get();
+        String key = key(task);
+        synchronized (caches) {
+            PersistentTokenizeCache cache = caches.get(key);
+            if (cache == null) {
+                boolean writable = transactions.contains(key);
+                if (!writable) {
+                    logger.info("Persistent cache {} is read only in this JVM; new entries are not collected", path);
+                }
+                cache = new PersistentTokenizeCache(key, new File(path), task.getPersistentCacheFingerprint(), task.getPersistentCacheMaxBytes(), writable);
+                caches.put(key, cache);
+            }
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Called when a task closes. A read only cache is dropped with the last task; a writable one is
+     * kept until {@link #commit(PluginTask)}.
+     *
+     * @param cache
+     */
+    public static void release(PersistentTokenizeCache cache)
+    {
+        synchronized (caches) {
+            cache.references--;
+            if (cache.references == 0 && !cache.writable && caches.get(cache.key) == cache) {
+                caches.remove(cache.key);
+            }
+        }
+    }
+
+    /**
+     * Writes the cache of {@code persistent_cache_path} back to disk. Called at the end of the transaction.
+     *
+     * @param task
+     */
+    public static void commit(PluginTask task)
+    {
+        PersistentTokenizeCache cache;
+        synchronized (caches) {
+            transactions.remove(key(task));
+            cache = caches.remove(key(task));
+        }
+        if (cache != null) {
+            cache.write();
+        }
+    }
+
+    /**
+     * @param delegate
+     * @param settings
+     * @return extractor that looks up this cache before tokenizing and stores what it tokenized
+     */
+    public ParallelExtractor.Extractor wrap(final ParallelExtractor.Extractor delegate, final OutputPlan.Setting[] settings)
+    {
+        return new ParallelExtractor.Extractor()
+        {
+            @Override
+            public Object[] extract(String source)
+            {
+                Object[] outputs = get(source, settings);
+                if (outputs == null) {
+                    outputs = delegate.extract(source);
+                    if (delegate.isCacheable(outputs)) {
+                        put(source, outputs);
+                    }
+                }
+                return outputs;
+            }
+
+            @Override
+            public boolean isCacheable(Object[] outputs)
+            {
+                return delegate.isCacheable(outputs);
+            }
+        };
+    }
+
+    private MappedByteBuffer map()
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, Math.min(raf.length(), Integer.MAX_VALUE));
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != fingerprint) {
+                logger.info("Persistent cache {} is stale or unreadable. It will be rebuilt.", file);
+                return null;
+            }
+            int offset = HEADER_BYTES;
+            while (offset + RECORD_HEADER_BYTES <= buffer.limit()) {
+                int length = RECORD_HEADER_BYTES + buffer.getInt(offset + 8) + buffer.getInt(offset + 12);
+                if (length < RECORD_HEADER_BYTES || offset + length > buffer.limit()) {
+                    break;
+                }
+                if (!index.containsKey(buffer.getLong(offset))) {
+                    index.put(buffer.getLong(offset), offset);
+                }
+                offset += length;
+            }
+            logger.info("Persistent cache {} opened with {} entries", file, index.size());
+            return buffer;
+        }
+        catch (IOException e) {
+            logger.warn("Failed to open persistent cache {}", file, e);
+            return null;
+        }
+    }
+
+    private static long hash(String source)
+    {
+        return Hashing.murmur3_128().hashUnencodedChars(source).asLong();
+    }
+
+    /**
+     * @param source
+     * @param settings
+     * @return cached outputs, or null
+     */
+    public Object[] get(String source, OutputPlan.Setting[] settings)
+    {
+        byte[] value = added.get(source);
+        if (value == null && mapped != null) {
+            Integer offset = index.get(hash(source));
+            if (offset != null) {
+                value = read(offset, source);
+                if (value != null) {
+                    reused.add(offset);
+                }
+            }
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return decode(value, settings);
+    }
+
+    private byte[] read(int offset, String source)
+    {
+        ByteBuffer buffer = mapped.duplicate();
+        int keyLength = buffer.getInt(offset + 8);
+        int valueLength = buffer.getInt(offset + 12);
+        byte[] key = new byte[keyLength];
+        buffer.position(offset + RECORD_HEADER_BYTES);
+        buffer.get(key);
+        if (!source.equals(new String(key, Charsets.UTF_8))) {
+            return null;
+        }
+        byte[] value = new byte[valueLength];
+        buffer.get(value);
+        return value;
+    }
+
+    /**
+     * @param source
+     * @param outputs
+     */
+    public void put(String source, Object[] outputs)
+    {
+        if (!writable || addedBytes.get() > maxBytes) {
+            return;
+        }
+        byte[] value = encode(outputs);
+        if (added.put(source, value) == null) {
+            addedBytes.addAndGet(RECORD_HEADER_BYTES + source.length() * 3 + value.length);
+        }
+    }
+
+    private static byte[] encode(Object[] outputs)
+    {
+        Value[] values = new Value[outputs.length];
+        for (int j = 0; j < outputs.length; j++) {
+            values[j] = outputs[j] instanceof String ? ValueFactory.newString((String) outputs[j]) : (Value) outputs[j];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MessagePacker packer = MessagePack.newDefaultPacker(out)) {
+            ValueFactory.newArray(values).writeTo(packer);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static Object[] decode(byte[] value, OutputPlan.Setting[] settings)
+    {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(value)) {
+            ArrayValue array = unpacker.unpackValue().asArrayValue();
+            Object[] outputs = new Object[settings.length];
+            for (int j = 0; j < settings.length; j++) {
+                outputs[j] = settings[j].isJson() ? array.get(j) : array.get(j).asStringValue().asString();
+            }
+            return outputs;
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void write()
+    {
+        long start = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        long bytes = HEADER_BYTES;
+        int entries = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            for (Map.Entry<String, byte[]> entry : added.entrySet()) {
+                byte[] key = entry.getKey().getBytes(Charsets.UTF_8);
+                if (bytes + RECORD_HEADER_BYTES + key.length + entry.getValue().length > maxBytes) {
+                    break;
+                }
+                out.writeLong(hash(entry.getKey()));
+                out.writeInt(key.length);
+                out.writeInt(entry.getValue().length);
+                out.write(key);
+                out.write(entry.getValue());
+                bytes += RECORD_HEADER_BYTES + key.length + entry.getValue().length;
+                entries++;
+            }
+            if (mapped != null) {
+                for (boolean reusedPass : new boolean[] {true, false}) {
+                    for (int offset : index.values()) {
+                        if (reused.contains(offset) != reusedPass) {
+                            continue;
+                        }
+                        int length = RECORD_HEADER_BYTES + mapped.getInt(offset + 8) + mapped.getInt(offset + 12);
+                        if (bytes + length > maxBytes) {
+                            continue;
+                        }
+                        byte[] record = new byte[length];
+                        ByteBuffer buffer = mapped.duplicate();
+                        buffer.position(offset);
+                        buffer.get(record);
+                        out.write(record);
+                        bytes += length;
+                        entries++;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Failed to write persistent cache {}", file, e);
+            tmp.delete();
+            return;
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            logger.warn("Failed to replace persistent cache {}", file, e);
+            tmp.delete();
+            return;
+        }
+        logger.info("Persistent cache {}: hits={}, misses={}, written {} entries ({} bytes) in {} ms",
+                file, hits.get(), misses.get(), entries, bytes, System.currentTimeMillis() - start);
+    }
+}
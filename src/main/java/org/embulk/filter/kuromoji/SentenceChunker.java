@@ -0,0 +1,52 @@
+package org.embulk.filter.kuromoji;
+
+/**
+ * Splits long texts into chunks of at most {@code max_chunk_chars} characters.
+ *
+ * A chunk ends after the last sentence boundary (。！？!? or a newline) inside the limit. When
+ * there is none, the chunk is cut at the limit without splitting a surrogate pair.
+ */
+public class SentenceChunker
+{
+    private static final String BOUNDARIES = "。！？!?\n";
+
+    private final int maxChunkChars;
+
+    public SentenceChunker(int maxChunkChars)
+    {
+        this.maxChunkChars = maxChunkChars;
+    }
+
+    /**
+     * @param text
+     * @param start start of the chunk
+     * @return end (exclusive) of the chunk
+     */
+    public int next(String text, int start)
+    {
+        int limit = start + maxChunkChars;
+        if (limit >= text.length() || limit < 0) {
+            return text.length();
+        }
+        for (int i = limit - 1; i > start; i--) {
+            if (BOUNDARIES.indexOf(text.charAt(i)) >= 0) {
+                return i + 1;
+            }
+        }
+        if (Character.isHighSurrogate(text.charAt(limit - 1)) && limit - 1 > start) {
+            return limit - 1;
+        }
+        return limit;
+    }
+
+    /**
+     * @param text
+     * @param start
+     * @param end
+     * @return the chunk. the text itself when it is a single chunk.
+     */
+    public static String chunk(String text, int start, int end)
+    {
+        return start == 0 && end == text.length() ? text : text.substring(start, end);
+    }
+}
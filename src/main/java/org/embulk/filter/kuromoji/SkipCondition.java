@@ -0,0 +1,164 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Set;
+
+import org.embulk.config.ConfigException;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.SkipIfTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * {@code skip_if} compiled once per task. Rules are evaluated before tokenization; the values they
+ * match get the {@code fallback} outputs instead.
+ *
+ * A value is skipped when it matches any enabled value rule, and every key column of a row is
+ * skipped when the condition column is {@code in} / {@code not_in} the listed values.
+ */
+public class SkipCondition
+{
+    public enum Fallback
+    {
+        NULL("null"),
+        RAW("raw"),
+        EMPTY("empty");
+
+        private final String name;
+
+        Fallback(String name)
+        {
+            this.name = name;
+        }
+
+        public static Fallback of(String name)
+        {
+            for (Fallback fallback : values()) {
+                if (fallback.name.equals(name)) {
+                    return fallback;
+                }
+            }
+            throw new ConfigException(String.format("Unknown fallback '%s'. Supported fallbacks are null, raw and empty.", name));
+        }
+    }
+
+    private final boolean empty;
+    private final boolean asciiOnly;
+    private final boolean numeric;
+    private final int maxLength;
+    private final int minLength;
+    private final Column column;
+    private final Set<String> in;
+    private final Set<String> notIn;
+    private final Fallback fallback;
+
+    private SkipCondition(SkipIfTask task, Schema inputSchema)
+    {
+        this.empty = task.getEmpty();
+        this.asciiOnly = task.getAsciiOnly();
+        this.numeric = task.getNumeric();
+        this.maxLength = task.getMaxLength().or(Integer.MAX_VALUE);
+        this.minLength = task.getMinLength().or(0);
+        this.column = task.getColumn().isPresent() ? inputSchema.lookupColumn(task.getColumn().get()) : null;
+        this.in = task.getIn().isPresent() ? ImmutableSet.copyOf(task.getIn().get()) : null;
+        this.notIn = task.getNotIn().isPresent() ? ImmutableSet.copyOf(task.getNotIn().get()) : null;
+        this.fallback = Fallback.of(task.getFallback());
+        if (column == null && (in != null || notIn != null)) {
+            throw new ConfigException("skip_if in / not_in requires column");
+        }
+        if (column != null && in == null && notIn == null) {
+            throw new ConfigException("skip_if column requires in or not_in");
+        }
+    }
+
+    /**
+     * @param task
+     * @param inputSchema
+     * @return null when {@code skip_if} is not configured
+     */
+    public static SkipCondition of(PluginTask task, Schema inputSchema)
+    {
+        if (!task.getSkipIf().isPresent()) {
+            return null;
+        }
+        return new SkipCondition(task.getSkipIf().get(), inputSchema);
+    }
+
+    public Fallback getFallback()
+    {
+        return fallback;
+    }
+
+    /**
+     * @param reader positioned at the row
+     * @return true when every key column of the row is skipped
+     */
+    public boolean skipRow(PageReader reader)
+    {
+        if (column == null) {
+            return false;
+        }
+        String value = reader.isNull(column) ? null : toString(reader);
+        boolean listed = value != null && in != null && in.contains(value);
+        boolean unlisted = notIn != null && (value == null || !notIn.contains(value));
+        return listed || unlisted;
+    }
+
+    private String toString(PageReader reader)
+    {
+        if (Types.STRING.equals(column.getType())) {
+            return reader.getString(column);
+        }
+        if (Types.LONG.equals(column.getType())) {
+            return String.valueOf(reader.getLong(column));
+        }
+        if (Types.BOOLEAN.equals(column.getType())) {
+            return String.valueOf(reader.getBoolean(column));
+        }
+        if (Types.DOUBLE.equals(column.getType())) {
+            return String.valueOf(reader.getDouble(column));
+        }
+        if (Types.TIMESTAMP.equals(column.getType())) {
+            return reader.getTimestamp(column).toString();
+        }
+        return reader.getJson(column).toJson();
+    }
+
+    /**
+     * @param value non null value of a key column
+     * @return true when the value is not tokenized
+     */
+    public boolean skipValue(String value)
+    {
+        int length = value.length();
+        if (length > maxLength || length < minLength) {
+            return true;
+        }
+        if (!empty && !asciiOnly && !numeric) {
+            return false;
+        }
+        boolean blank = true;
+        boolean ascii = true;
+        boolean number = true;
+        boolean digit = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            boolean whitespace = Character.isWhitespace(c);
+            blank &= whitespace;
+            ascii &= c < 0x80;
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            }
+            else if (!whitespace && c != '.' && c != ',' && c != '-' && c != '+') {
+                number = false;
+            }
+            if (!blank && !ascii && !number) {
+                break;
+            }
+        }
+        return (empty && blank) || (asciiOnly && ascii && !blank) || (numeric && number && digit);
+    }
+}
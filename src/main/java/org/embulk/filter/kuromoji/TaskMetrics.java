@@ -0,0 +1,188 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+
+/**
+ * Throughput counters of a task.
+ *
+ * Every method returns immediately when metrics are disabled, so the page outputs call them
+ * unconditionally. Tokenization counters are updated from worker threads when
+ * {@code parallelism} is set, so tokenize time is the sum over all threads.
+ */
+public class TaskMetrics
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final TaskMetrics total = new TaskMetrics(true);
+
+    private final boolean enabled;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong values = new AtomicLong();
+    private final AtomicLong chars = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong droppedTokens = new AtomicLong();
+    private final AtomicLong tokenizeNanos = new AtomicLong();
+    private final AtomicLong copyNanos = new AtomicLong();
+    private final AtomicLong buildNanos = new AtomicLong();
+    private final AtomicLong longestInput = new AtomicLong();
+    private final AtomicLong longestInputNanos = new AtomicLong();
+    private final long startNanos;
+
+    public TaskMetrics(boolean enabled)
+    {
+        this.enabled = enabled;
+        this.startNanos = enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return start time to pass to the add methods. 0 when disabled.
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void addRow()
+    {
+        if (enabled) {
+            rows.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param length characters of the tokenized value
+     * @param emitted tokens kept
+     * @param dropped tokens removed by part of speech filters
+     * @param start
+     */
+    public void addTokenized(int length, int emitted, int dropped, long start)
+    {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        values.incrementAndGet();
+        chars.addAndGet(length);
+        tokens.addAndGet(emitted);
+        droppedTokens.addAndGet(dropped);
+        tokenizeNanos.addAndGet(elapsed);
+        synchronized (this) {
+            if (length > longestInput.get()) {
+                longestInput.set(length);
+                longestInputNanos.set(elapsed);
+            }
+        }
+    }
+
+    public void addCopy(long start)
+    {
+        if (enabled) {
+            copyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public void addBuild(long start)
+    {
+        if (enabled) {
+            buildNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Logs the summary of this task and adds it to the transaction total.
+     */
+    public void report()
+    {
+        if (!enabled) {
+            return;
+        }
+        logger.info("Kuromoji task metrics: {}", toMap(System.nanoTime() - startNanos));
+        total.merge(this);
+    }
+
+    private synchronized void merge(TaskMetrics other)
+    {
+        rows.addAndGet(other.rows.get());
+        values.addAndGet(other.values.get());
+        chars.addAndGet(other.chars.get());
+        tokens.addAndGet(other.tokens.get());
+        droppedTokens.addAndGet(other.droppedTokens.get());
+        tokenizeNanos.addAndGet(other.tokenizeNanos.get());
+        copyNanos.addAndGet(other.copyNanos.get());
+        buildNanos.addAndGet(other.buildNanos.get());
+        if (other.longestInput.get() > longestInput.get()) {
+            longestInput.set(other.longestInput.get());
+            longestInputNanos.set(other.longestInputNanos.get());
+        }
+    }
+
+    private AtomicLong[] counters()
+    {
+        return new AtomicLong[] {rows, values, chars, tokens, droppedTokens,
+            tokenizeNanos, copyNanos, buildNanos, longestInput, longestInputNanos};
+    }
+
+    private Map<String, Object> toMap(long elapsedNanos)
+    {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("rows", rows.get());
+        map.put("tokenized_values", values.get());
+        map.put("tokenized_chars", chars.get());
+        map.put("emitted_tokens", tokens.get());
+        map.put("dropped_tokens", droppedTokens.get());
+        map.put("tokenize_millis", tokenizeNanos.get() / 1000000);
+        map.put("copy_millis", copyNanos.get() / 1000000);
+        map.put("build_millis", buildNanos.get() / 1000000);
+        map.put("longest_input_chars", longestInput.get());
+        map.put("longest_input_millis", longestInputNanos.get() / 1000000);
+        if (elapsedNanos > 0) {
+            map.put("elapsed_millis", elapsedNanos / 1000000);
+            map.put("rows_per_second", (long) (rows.get() * 1e9 / elapsedNanos));
+            map.put("chars_per_second", (long) (chars.get() * 1e9 / elapsedNanos));
+        }
+        return map;
+    }
+
+    /**
+     * Clears the transaction total. Called before tasks run.
+     */
+    static void resetTotal()
+    {
+        synchronized (total) {
+            for (AtomicLong counter : total.counters()) {
+                counter.set(0);
+            }
+        }
+    }
+
+    /**
+     * Logs the total of the tasks that ran in this JVM and optionally writes it as JSON.
+     *
+     * @param elapsedNanos
+     * @param path
+     */
+    static void reportTotal(long elapsedNanos, String path)
+    {
+        Map<String, Object> map;
+        synchronized (total) {
+            map = total.toMap(elapsedNanos);
+        }
+        logger.info("Kuromoji transaction metrics: {}", map);
+        if (path != null) {
+            try {
+                new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(path), map);
+            }
+            catch (IOException e) {
+                logger.warn("Failed to write metrics to {}", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+/**
+ * Reusable counter of the terms of one value for {@code type: term_frequency}.
+ *
+ * Terms are copied into a shared char pool and counted in an open-addressing table keyed by
+ * their murmur3 hash, so counting allocates nothing once the arrays have grown to the size of
+ * the largest value. Not thread safe; use one per thread.
+ */
+public class TermCounter
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int topK;
+    private final int minCount;
+
+    private char[] chars = new char[1024];
+    private int charLength;
+    // per term, in order of first occurrence
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+    // slot -> term index + 1, 0 for an empty slot
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * @param topK max number of terms emitted, most frequent first and earlier terms first within the same count.
+     *     0 emits every term in order of first occurrence.
+     * @param minCount terms counted less than this are not emitted
+     */
+    public TermCounter(int topK, int minCount)
+    {
+        this.topK = topK;
+        this.minCount = minCount;
+    }
+
+    public void reset()
+    {
+        // clear only the slots of the counted terms, as the table stays at the size of the largest value
+        int mask = table.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (table[slot] != index + 1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = 0;
+        }
+        size = 0;
+        charLength = 0;
+    }
+
+    public void add(CharSequence term)
+    {
+        int length = term.length();
+        ensureChars(length);
+        for (int i = 0; i < length; i++) {
+            chars[charLength + i] = term.charAt(i);
+        }
+        count(length);
+    }
+
+    public void add(char[] buffer, int offset, int length)
+    {
+        ensureChars(length);
+        System.arraycopy(buffer, offset, chars, charLength, length);
+        count(length);
+    }
+
+    private void ensureChars(int length)
+    {
+        if (charLength + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charLength + length));
+        }
+    }
+
+    /**
+     * Counts the term just copied to the end of the char pool.
+     */
+    private void count(int length)
+    {
+        int hash = TokenHasher.murmur3(chars, charLength, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && equals(index, charLength, length)) {
+                counts[index]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        offsets[size] = charLength;
+        lengths[size] = length;
+        hashes[size] = hash;
+        counts[size] = 1;
+        table[slot] = ++size;
+        charLength += length;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    private boolean equals(int index, int offset, int length)
+    {
+        if (lengths[index] != length) {
+            return false;
+        }
+        int other = offsets[index];
+        for (int i = 0; i < length; i++) {
+            if (chars[other + i] != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash()
+    {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    /**
+     * @param pool intern pool of the terms. nullable
+     * @return map of term to count
+     */
+    public Value build(TokenPool pool)
+    {
+        int[] selected = select();
+        Value[] kvs = new Value[selected.length * 2];
+        for (int k = 0; k < selected.length; k++) {
+            int index = selected[k];
+            kvs[k * 2] = pool != null ? pool.value(chars, offsets[index], lengths[index])
+                    : ValueFactory.newString(new String(chars, offsets[index], lengths[index]));
+            kvs[k * 2 + 1] = ValueFactory.newInteger(counts[index]);
+        }
+        return ValueFactory.newMap(kvs, true);
+    }
+
+    private int[] select()
+    {
+        int eligible = 0;
+        for (int index = 0; index < size; index++) {
+            if (counts[index] >= minCount) {
+                eligible++;
+            }
+        }
+        if (topK <= 0) {
+            int[] selected = new int[eligible];
+            int k = 0;
+            for (int index = 0; index < size; index++) {
+                if (counts[index] >= minCount) {
+                    selected[k++] = index;
+                }
+            }
+            return selected;
+        }
+
+        // count in the high bits, earlier terms first within the same count
+        long[] keys = new long[eligible];
+        int k = 0;
+        for (int index = 0; index < size; index++) {
+            if (counts[index] >= minCount) {
+                keys[k++] = ((long) counts[index] << 32) | (Integer.MAX_VALUE - index);
+            }
+        }
+        Arrays.sort(keys);
+        int[] selected = new int[Math.min(topK, eligible)];
+        for (k = 0; k < selected.length; k++) {
+            selected[k] = Integer.MAX_VALUE - (int) keys[keys.length - 1 - k];
+        }
+        return selected;
+    }
+}
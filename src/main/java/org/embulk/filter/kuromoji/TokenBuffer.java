@@ -0,0 +1,139 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+
+/**
+ * Reusable columnar store of the tokens of one chunk, filled by a {@link TokenizerEngine}.
+ *
+ * The chars of every field of every token share one char pool; each field is a column of
+ * offsets and lengths indexed by token. Only the fields requested from the engine are filled,
+ * the others are absent. Not thread safe; use one per thread.
+ */
+public class TokenBuffer
+{
+    public enum Field
+    {
+        SURFACE,
+        BASE_FORM,
+        READING,
+        PRONUNCIATION,
+        INFLECTION,
+        PART_OF_SPEECH
+    }
+
+    private static final int ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Field[] FIELDS = Field.values();
+
+    private char[] chars = new char[1024];
+    private int charLength;
+    private final int[][] offsets = new int[FIELDS.length][INITIAL_CAPACITY];
+    private final int[][] lengths = new int[FIELDS.length][INITIAL_CAPACITY];
+    private int size;
+    private int dropped;
+
+    public void clear()
+    {
+        charLength = 0;
+        size = 0;
+        dropped = 0;
+    }
+
+    /**
+     * Starts a new token with every field absent.
+     */
+    public void add()
+    {
+        if (size == lengths[0].length) {
+            for (int f = 0; f < FIELDS.length; f++) {
+                offsets[f] = Arrays.copyOf(offsets[f], size * 2);
+                lengths[f] = Arrays.copyOf(lengths[f], size * 2);
+            }
+        }
+        for (int f = 0; f < FIELDS.length; f++) {
+            lengths[f][size] = ABSENT;
+        }
+        size++;
+    }
+
+    /**
+     * Counts a token the engine dropped by the part of speech filter.
+     */
+    public void drop()
+    {
+        dropped++;
+    }
+
+    /**
+     * Sets a field of the last token. A null value leaves it absent.
+     *
+     * @param field
+     * @param value
+     */
+    public void set(Field field, CharSequence value)
+    {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        ensureChars(length);
+        for (int i = 0; i < length; i++) {
+            chars[charLength + i] = value.charAt(i);
+        }
+        commit(field, length);
+    }
+
+    public void set(Field field, char[] buffer, int offset, int length)
+    {
+        ensureChars(length);
+        System.arraycopy(buffer, offset, chars, charLength, length);
+        commit(field, length);
+    }
+
+    private void ensureChars(int length)
+    {
+        if (charLength + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charLength + length));
+        }
+    }
+
+    private void commit(Field field, int length)
+    {
+        offsets[field.ordinal()][size - 1] = charLength;
+        lengths[field.ordinal()][size - 1] = length;
+        charLength += length;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getDropped()
+    {
+        return dropped;
+    }
+
+    public boolean isPresent(Field field, int token)
+    {
+        return lengths[field.ordinal()][token] != ABSENT;
+    }
+
+    /**
+     * @return the char pool. valid until the next {@link #add()} or {@link #set}.
+     */
+    public char[] chars()
+    {
+        return chars;
+    }
+
+    public int offset(Field field, int token)
+    {
+        return offsets[field.ordinal()][token];
+    }
+
+    public int length(Field field, int token)
+    {
+        return lengths[field.ordinal()][token];
+    }
+}
@@ -0,0 +1,80 @@
+package org.embulk.filter.kuromoji;
+
+/**
+ * 32-bit MurmurHash3 of UTF-16 chars, computed without creating strings.
+ *
+ * The result is identical to Guava's {@code Hashing.murmur3_32().hashUnencodedChars(token).asInt()},
+ * so consumers can reproduce the ids of {@code type: hashed}.
+ */
+public final class TokenHasher
+{
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private TokenHasher()
+    {
+    }
+
+    public static int murmur3(CharSequence chars)
+    {
+        int h1 = 0;
+        int length = chars.length();
+        for (int i = 1; i < length; i += 2) {
+            h1 = mixH1(h1, mixK1(chars.charAt(i - 1) | (chars.charAt(i) << 16)));
+        }
+        if ((length & 1) == 1) {
+            h1 ^= mixK1(chars.charAt(length - 1));
+        }
+        return fmix(h1, 2 * length);
+    }
+
+    public static int murmur3(char[] buffer, int offset, int length)
+    {
+        int h1 = 0;
+        for (int i = 1; i < length; i += 2) {
+            h1 = mixH1(h1, mixK1(buffer[offset + i - 1] | (buffer[offset + i] << 16)));
+        }
+        if ((length & 1) == 1) {
+            h1 ^= mixK1(buffer[offset + length - 1]);
+        }
+        return fmix(h1, 2 * length);
+    }
+
+    /**
+     * @param hash
+     * @param dimension
+     * @return hash in [0, dimension)
+     */
+    public static long bucket(int hash, long dimension)
+    {
+        long bucket = hash % dimension;
+        return bucket < 0 ? bucket + dimension : bucket;
+    }
+
+    private static int mixK1(int k1)
+    {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1)
+    {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length)
+    {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
@@ -0,0 +1,121 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Arrays;
+
+import org.msgpack.value.StringValue;
+import org.msgpack.value.ValueFactory;
+
+/**
+ * Bounded intern pool of token string values ({@code intern_pool_size}).
+ *
+ * A msgpack string value keeps its UTF-8 encoding, so a repeated token reuses both the string
+ * and its encoded bytes instead of allocating and encoding them again. Lookups hash the token
+ * chars and compare them in place; no string is created for a hit. When the pool is full it is
+ * cleared and refilled by the tokens that follow. Not thread safe; use one per thread.
+ */
+public class TokenPool
+{
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final int maxSize;
+    private final String[] keys;
+    private final int[] hashes;
+    private final StringValue[] values;
+    private int size;
+    private long lookups;
+    private long hits;
+
+    /**
+     * @param maxSize max number of pooled tokens
+     */
+    public TokenPool(int maxSize)
+    {
+        this.maxSize = maxSize;
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 1) * 2 - 1) << 1;
+        this.keys = new String[capacity];
+        this.hashes = new int[capacity];
+        this.values = new StringValue[capacity];
+    }
+
+    /**
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return string value of the chars
+     */
+    public StringValue value(char[] buffer, int offset, int length)
+    {
+        if (length > MAX_TOKEN_LENGTH) {
+            return ValueFactory.newString(new String(buffer, offset, length));
+        }
+        lookups++;
+        int hash = TokenHasher.murmur3(buffer, offset, length);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && equals(keys[slot], buffer, offset, length)) {
+                hits++;
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        String key = new String(buffer, offset, length);
+        StringValue value = ValueFactory.newString(key);
+        if (size == maxSize) {
+            clear();
+            slot = hash & mask;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        size++;
+        return value;
+    }
+
+    /**
+     * @param word
+     * @return string value of the word
+     */
+    public StringValue value(String word)
+    {
+        if (word.length() > MAX_TOKEN_LENGTH) {
+            return ValueFactory.newString(word);
+        }
+        return value(word.toCharArray(), 0, word.length());
+    }
+
+    private static boolean equals(String key, char[] buffer, int offset, int length)
+    {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void clear()
+    {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getLookups()
+    {
+        return lookups;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+}
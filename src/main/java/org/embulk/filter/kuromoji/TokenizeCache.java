@@ -0,0 +1,128 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.embulk.spi.Exec;
+import org.msgpack.value.Value;
+import org.slf4j.Logger;
+
+/**
+ * LRU cache of extracted outputs keyed by source text.
+ *
+ * The cached outputs are already filtered by part of speech and extracted for every setting,
+ * so a hit skips tokenization entirely. The cache is bounded both by entry count and by an
+ * approximate size in bytes.
+ */
+public class TokenizeCache implements ParallelExtractor.Extractor
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final ParallelExtractor.Extractor delegate;
+    private final int maxEntries;
+    private final int maxTextLength;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Object[]> entries;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TokenizeCache(ParallelExtractor.Extractor delegate, int maxEntries, int maxTextLength, long maxBytes)
+    {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxTextLength = maxTextLength;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public Object[] extract(String source)
+    {
+        if (source.length() > maxTextLength) {
+            return delegate.extract(source);
+        }
+        synchronized (this) {
+            Object[] outputs = entries.get(source);
+            if (outputs != null) {
+                hits++;
+                return outputs;
+            }
+            misses++;
+        }
+        Object[] outputs = delegate.extract(source);
+        if (delegate.isCacheable(outputs)) {
+            put(source, outputs);
+        }
+        return outputs;
+    }
+
+    @Override
+    public boolean isCacheable(Object[] outputs)
+    {
+        return delegate.isCacheable(outputs);
+    }
+
+    private synchronized void put(String source, Object[] outputs)
+    {
+        Object[] previous = entries.put(source, outputs);
+        if (previous != null) {
+            // another thread tokenized the same text meanwhile
+            bytes -= estimate(source, previous);
+        }
+        bytes += estimate(source, outputs);
+
+        Iterator<Map.Entry<String, Object[]>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Object[]> eldest = it.next();
+            bytes -= estimate(eldest.getKey(), eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void logStats()
+    {
+        long lookups = hits + misses;
+        logger.info("Tokenize cache: entries={}, bytes={}, hits={}, misses={}, evictions={}, hit_rate={}%",
+                entries.size(), bytes, hits, misses, evictions, lookups == 0 ? 0 : hits * 100 / lookups);
+    }
+
+    private static long estimate(String source, Object[] outputs)
+    {
+        long size = ENTRY_OVERHEAD + source.length() * 2L;
+        for (Object output : outputs) {
+            size += estimate(output);
+        }
+        return size;
+    }
+
+    private static long estimate(Object output)
+    {
+        if (output instanceof String) {
+            return ENTRY_OVERHEAD + ((String) output).length() * 2L;
+        }
+        Value value = (Value) output;
+        if (value.isArrayValue()) {
+            long size = ENTRY_OVERHEAD;
+            for (Value element : value.asArrayValue()) {
+                size += estimate(element);
+            }
+            return size;
+        }
+        if (value.isMapValue()) {
+            long size = ENTRY_OVERHEAD;
+            for (Value element : value.asMapValue().getKeyValueArray()) {
+                size += estimate(element);
+            }
+            return size;
+        }
+        if (value.isStringValue()) {
+            return ENTRY_OVERHEAD + value.asStringValue().asString().length() * 2L;
+        }
+        return ENTRY_OVERHEAD;
+    }
+}
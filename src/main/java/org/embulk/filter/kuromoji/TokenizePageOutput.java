@@ -0,0 +1,401 @@
+package org.embulk.filter.kuromoji;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.embulk.config.TaskSource;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.slf4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Page processing shared by every {@link TokenizerEngine}.
+ *
+ * Each value is tokenized once per chunk into a per-thread {@link TokenBuffer} holding every
+ * field the settings need, and each setting appends its field of the kept tokens to a per-thread
+ * {@link OutputBuffer}. Values repeated within a page or by consecutive records are tokenized
+ * once ({@link PageDeduplicator}). Values routed to {@link CharClassSegmenter} are never cached,
+ * so that a slow run does not leave its fallback segmentation behind.
+ */
+public class TokenizePageOutput implements PageOutput, ParallelExtractor.Extractor
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    // outputs of a null key column or a skipped value with the null fallback
+    private static final Object[] NULL_OUTPUTS = new Object[0];
+
+    private final PluginTask task;
+    private final TokenizerRegistry.Lease lease;
+    private final TokenizerEngine engine;
+    private final OutputPlan plan;
+    private final TokenBuffer.Field[] fields;
+    private final boolean keepInput;
+    private final ColumnCopier[] copiers;
+    private final TaskMetrics metrics;
+    private final TokenizeCache cache;
+    private final PersistentTokenizeCache persistentCache;
+    private final PageDeduplicator deduplicator;
+    private final SkipCondition skipCondition;
+    private final Object[] emptyOutputs;
+    private long skipped;
+    private final ParallelExtractor.Extractor extractor;
+    private final ParallelExtractor parallelExtractor;
+    private final CharNormalizer normalizer;
+    private final SentenceChunker chunker;
+    private final int maxTokens;
+    private final int maxChars;
+    private final long maxTokenizeNanos;
+    private final TokenizerEngine segmenter = new CharClassSegmenter();
+    private final OutlierLog outliers = new OutlierLog();
+    private final List<TokenPool> pools = Collections.synchronizedList(Lists.<TokenPool>newArrayList());
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>()
+    {
+        @Override
+        protected Context initialValue()
+        {
+            return new Context();
+        }
+    };
+    private final PageReader reader;
+    private final PageBuilder builder;
+
+    public TokenizePageOutput(TaskSource taskSource, TokenizerRegistry.Lease lease, Schema inputSchema, Schema outputSchema, PageOutput output)
+    {
+        this.task = taskSource.loadTask(PluginTask.class);
+        this.lease = lease;
+        this.plan = OutputPlan.compile(task, inputSchema, outputSchema);
+        this.engine = lease.newEngine(plan.getFields(), PartOfSpeechFilter.of(task));
+        OutputPlan.Setting[] settings = plan.getSettings();
+        this.fields = new TokenBuffer.Field[settings.length];
+        for (int j = 0; j < settings.length; j++) {
+            fields[j] = settings[j].getMethod().getField();
+        }
+        this.keepInput = task.getKeepInput();
+        this.copiers = ColumnCopier.of(inputSchema);
+        this.metrics = new TaskMetrics(task.getMetrics());
+        ParallelExtractor.Extractor tokenizing = this;
+        this.persistentCache = task.getPersistentCachePath().isPresent() ? PersistentTokenizeCache.open(task) : null;
+        if (persistentCache != null) {
+            tokenizing = persistentCache.wrap(this, plan.getSettings());
+        }
+        this.cache = task.getCacheSize() > 0
+                ? new TokenizeCache(tokenizing, task.getCacheSize(), task.getCacheMaxTextLength(), task.getCacheMaxBytes()) : null;
+        this.extractor = cache != null ? cache : tokenizing;
+        this.deduplicator = new PageDeduplicator(plan.getKeyColumns().length);
+        this.skipCondition = SkipCondition.of(task, inputSchema);
+        this.emptyOutputs = new OutputBuffer(settings).build();
+        this.normalizer = task.getNormalize().isPresent() ? CharNormalizer.of(task.getNormalize().get()) : null;
+        this.chunker = new SentenceChunker(task.getMaxChunkChars().or(Integer.MAX_VALUE));
+        this.maxTokens = task.getMaxTokens().or(Integer.MAX_VALUE);
+        this.maxChars = task.getMaxChars().or(Integer.MAX_VALUE);
+        this.maxTokenizeNanos = task.getMaxTokenizeMillis().isPresent() ? task.getMaxTokenizeMillis().get() * 1000000L : Long.MAX_VALUE;
+        this.parallelExtractor = task.getParallelism() > 1 ? new ParallelExtractor(extractor, task.getParallelism()) : null;
+        this.reader = new PageReader(inputSchema);
+        this.builder = new PageBuilder(Exec.getBufferAllocator(), outputSchema, output);
+    }
+
+    @Override
+    public void finish()
+    {
+        builder.finish();
+        deduplicator.logStats();
+        if (skipCondition != null) {
+            logger.info("Skipped {} values by skip_if", skipped);
+        }
+        logPoolStats();
+        outliers.logStats();
+        if (cache != null) {
+            cache.logStats();
+        }
+        metrics.report();
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            reader.close();
+            builder.close();
+        }
+        finally {
+            if (parallelExtractor != null) {
+                parallelExtractor.close();
+            }
+            if (persistentCache != null) {
+                PersistentTokenizeCache.release(persistentCache);
+            }
+            lease.close();
+        }
+    }
+
+    @Override
+    public void add(Page page)
+    {
+        if (parallelExtractor != null) {
+            addParallel(page);
+            return;
+        }
+        reader.setPage(page);
+        deduplicator.newPage();
+        while (reader.nextRecord()) {
+            setValue(builder);
+            long start = metrics.start();
+            builder.addRecord();
+            metrics.addBuild(start);
+            metrics.addRow();
+        }
+    }
+
+    /**
+     * Reads the whole page first, tokenizes its distinct values on the worker threads and then writes the records in order.
+     *
+     * @param page
+     */
+    private void addParallel(Page page)
+    {
+        final Column[] keyColumns = plan.getKeyColumns();
+        final List<Object[]> records = Lists.newArrayList();
+        final List<String> sources = Lists.newArrayList();
+        final List<Object[]> outputs = Lists.newArrayList();
+        final Map<String, Integer> pending = Maps.newHashMap();
+        final List<String> distinct = Lists.newArrayList();
+        reader.setPage(page);
+        deduplicator.newPage();
+        while (reader.nextRecord()) {
+            records.add(keepInput ? ColumnCopier.readAll(copiers, reader) : null);
+            boolean skipRow = skipCondition != null && skipCondition.skipRow(reader);
+            for (int i = 0; i < keyColumns.length; i++) {
+                String source = reader.isNull(keyColumns[i]) ? null : reader.getString(keyColumns[i]);
+                sources.add(source);
+                Object[] reused = source == null ? NULL_OUTPUTS : skip(source, skipRow);
+                if (reused == null) {
+                    reused = deduplicator.get(i, source);
+                }
+                outputs.add(reused);
+                if (reused == null) {
+                    if (pending.containsKey(source)) {
+                        deduplicator.countHit();
+                    }
+                    else {
+                        pending.put(source, distinct.size());
+                        distinct.add(source);
+                    }
+                }
+            }
+        }
+
+        final boolean[] cacheable = new boolean[distinct.size()];
+        final Object[][] extracted = parallelExtractor.extractAll(distinct.toArray(new String[distinct.size()]), cacheable);
+        for (int n = 0; n < outputs.size(); n++) {
+            if (outputs.get(n) == null) {
+                int index = pending.get(sources.get(n));
+                outputs.set(n, extracted[index]);
+                if (cacheable[index]) {
+                    deduplicator.put(n % keyColumns.length, sources.get(n), outputs.get(n));
+                }
+            }
+        }
+        int n = 0;
+        for (Object[] record : records) {
+            long start = metrics.start();
+            if (keepInput) {
+                ColumnCopier.writeAll(copiers, builder, record);
+            }
+            metrics.addCopy(start);
+            start = metrics.start();
+            for (int i = 0; i < keyColumns.length; i++) {
+                write(i, outputs.get(n++));
+            }
+            builder.addRecord();
+            metrics.addBuild(start);
+            metrics.addRow();
+        }
+    }
+
+    /**
+     * @param builder
+     */
+    private void setValue(PageBuilder builder)
+    {
+        long start = metrics.start();
+        if (keepInput) {
+            ColumnCopier.copyAll(copiers, reader, builder);
+        }
+        metrics.addCopy(start);
+
+        final Column[] keyColumns = plan.getKeyColumns();
+        final boolean skipRow = skipCondition != null && skipCondition.skipRow(reader);
+        for (int i = 0; i < keyColumns.length; i++) {
+            Object[] outputs;
+            if (reader.isNull(keyColumns[i])) {
+                outputs = NULL_OUTPUTS;
+            }
+            else {
+                String source = reader.getString(keyColumns[i]);
+                outputs = skip(source, skipRow);
+                if (outputs == null) {
+                    outputs = deduplicator.get(i, source);
+                }
+                if (outputs == null) {
+                    outputs = extractor.extract(source);
+                    if (extractor.isCacheable(outputs)) {
+                        deduplicator.put(i, source, outputs);
+                    }
+                }
+            }
+            start = metrics.start();
+            write(i, outputs);
+            metrics.addBuild(start);
+        }
+    }
+
+    private void logPoolStats()
+    {
+        long size = 0;
+        long lookups = 0;
+        long hits = 0;
+        synchronized (pools) {
+            for (TokenPool pool : pools) {
+                size += pool.size();
+                lookups += pool.getLookups();
+                hits += pool.getHits();
+            }
+        }
+        if (lookups > 0) {
+            logger.info("Intern pool: {} tokens in {} pools, hit rate {}% of {} lookups",
+                    size, pools.size(), String.format("%.1f", hits * 100.0 / lookups), lookups);
+        }
+    }
+
+    /**
+     * @param source non null value of a key column
+     * @param skipRow
+     * @return fallback outputs when the value is skipped, otherwise null
+     */
+    private Object[] skip(String source, boolean skipRow)
+    {
+        if (!skipRow && (skipCondition == null || !skipCondition.skipValue(source))) {
+            return null;
+        }
+        skipped++;
+        switch (skipCondition.getFallback()) {
+            case RAW:
+                return contexts.get().raw(source);
+            case EMPTY:
+                return emptyOutputs;
+            default:
+                return NULL_OUTPUTS;
+        }
+    }
+
+    private void write(int keyIndex, Object[] outputs)
+    {
+        if (outputs == NULL_OUTPUTS) {
+            plan.writeNull(builder, keyIndex);
+        }
+        else {
+            plan.write(builder, keyIndex, outputs);
+        }
+    }
+
+    @Override
+    public Object[] extract(String source)
+    {
+        return contexts.get().extract(source);
+    }
+
+    @Override
+    public boolean isCacheable(Object[] outputs)
+    {
+        return contexts.get().routed != outputs;
+    }
+
+    private TokenPool newPool()
+    {
+        if (task.getInternPoolSize() <= 0) {
+            return null;
+        }
+        TokenPool pool = new TokenPool(task.getInternPoolSize());
+        pools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Per-thread tokenization state.
+     */
+    private class Context
+    {
+        private final TokenBuffer tokens = new TokenBuffer();
+        private final OutputBuffer buffer = new OutputBuffer(plan.getSettings(), newPool());
+        private final StringBuilder normalized = new StringBuilder();
+        // outputs of the last value routed to the segmenter
+        private Object[] routed;
+
+        Object[] extract(String source)
+        {
+            long start = metrics.start();
+            int emitted = 0;
+            int dropped = 0;
+            buffer.reset();
+            String text = normalizer != null ? normalizer.normalize(source, normalized) : source;
+            long began = maxTokenizeNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
+            boolean outlier = text.length() > maxChars;
+            if (outlier) {
+                outliers.add(source, false, 0);
+            }
+            for (int from = 0; from < text.length() && emitted < maxTokens;) {
+                int to = outlier ? text.length() : chunker.next(text, from);
+                tokens.clear();
+                (outlier ? segmenter : engine).tokenize(SentenceChunker.chunk(text, from, to), tokens);
+                if (!outlier && to < text.length() && maxTokenizeNanos != Long.MAX_VALUE) {
+                    long elapsed = System.nanoTime() - began;
+                    if (elapsed > maxTokenizeNanos) {
+                        outlier = true;
+                        outliers.add(source, true, elapsed);
+                    }
+                }
+                dropped += tokens.getDropped();
+                for (int t = 0; t < tokens.size() && emitted < maxTokens; t++, emitted++) {
+                    append(t);
+                }
+                from = to;
+            }
+            metrics.addTokenized(source.length(), emitted, dropped, start);
+            Object[] outputs = buffer.build();
+            routed = outlier ? outputs : null;
+            return outputs;
+        }
+
+        /**
+         * @param source
+         * @return outputs of the value as a single word
+         */
+        Object[] raw(String source)
+        {
+            buffer.reset();
+            for (int j = 0; j < fields.length; j++) {
+                buffer.append(j, source);
+            }
+            return buffer.build();
+        }
+
+        private void append(int t)
+        {
+            char[] chars = tokens.chars();
+            for (int j = 0; j < fields.length; j++) {
+                if (tokens.isPresent(fields[j], t)) {
+                    buffer.append(j, chars, tokens.offset(fields[j], t), tokens.length(fields[j], t));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.embulk.filter.kuromoji;
+
+/**
+ * A tokenizer backend.
+ *
+ * An engine is created per task for the fields its settings need and the part of speech filter,
+ * and is called from every tokenizing thread of the task, so it must be thread safe. Adding a
+ * backend only needs an engine; caching, chunking, token limits and output are shared by
+ * {@link TokenizePageOutput}.
+ */
+public interface TokenizerEngine
+{
+    /**
+     * Appends the tokens of a text that pass the part of speech filter to the buffer, and counts the others.
+     *
+     * @param text
+     * @param tokens
+     */
+    void tokenize(String text, TokenBuffer tokens);
+}
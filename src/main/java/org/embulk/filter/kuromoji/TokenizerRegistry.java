@@ -0,0 +1,331 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.JapaneseAnalyzer;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.JapaneseTokenizer;
+import org.codelibs.neologd.ipadic.lucene.analysis.ja.dict.UserDictionary;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+import org.slf4j.Logger;
+
+import com.atilika.kuromoji.TokenizerBase;
+import com.atilika.kuromoji.ipadic.Tokenizer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Process-wide registry of tokenizers.
+ *
+ * Loading IPADIC / NEologd and parsing the user dictionary is expensive, so every task of the
+ * same configuration shares one tokenizer instance. Both the kuromoji {@link Tokenizer} and the
+ * lucene {@link JapaneseAnalyzer} are safe to share between threads; the analyzer keeps its
+ * token stream (lattice state) per thread.
+ *
+ * Entries are reference counted and dropped when the last task releases them. A tokenizer is
+ * loaded outside of the registry lock, optionally on a background thread
+ * ({@code background_load}).
+ */
+public final class TokenizerRegistry
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final Map<String, Entry> entries = Maps.newHashMap();
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("kuromoji-loader-%d").setDaemon(true).build());
+
+    private TokenizerRegistry()
+    {
+    }
+
+    /**
+     * @param task
+     * @return lease of the shared tokenizer, loaded. must be closed by the caller.
+     */
+    public static Lease acquire(PluginTask task)
+    {
+        return acquire(task, false);
+    }
+
+    /**
+     * @param task
+     * @param background when true, a tokenizer not loaded yet is loaded on a background thread and
+     *     the lease is returned immediately; its engines wait for the load on first use.
+     * @return lease of the shared tokenizer. must be closed by the caller.
+     */
+    public static Lease acquire(final PluginTask task, boolean background)
+    {
+        final String key = buildKey(task);
+        final ExecSession session = Exec.session();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, new FutureTask<>(new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws ExecutionException
+                    {
+                        // the loader thread runs outside of the task
+                        return Exec.doWith(session, new ExecAction<Object>()
+                        {
+                            @Override
+                            public Object run()
+                            {
+                                long start = System.currentTimeMillis();
+                                Object tokenizer = load(task);
+                                logger.info("Loaded tokenizer {} in {} ms", key, System.currentTimeMillis() - start);
+                                return tokenizer;
+                            }
+                        });
+                    }
+                }));
+                entries.put(key, entry);
+                if (background) {
+                    loader.execute(entry.tokenizer);
+                }
+            }
+            entry.references++;
+        }
+        if (!background) {
+            // loads outside of the lock unless the loader thread has started already
+            entry.tokenizer.run();
+            try {
+                entry.get();
+            }
+            catch (RuntimeException e) {
+                release(entry);
+                throw e;
+            }
+        }
+        return new Lease(entry);
+    }
+
+    private static void release(Entry entry)
+    {
+        synchronized (entries) {
+            entry.references--;
+            if (entry.references == 0) {
+                entries.remove(entry.key);
+                if (entry.isLoaded() && entry.get() instanceof JapaneseAnalyzer) {
+                    ((JapaneseAnalyzer) entry.get()).close();
+                }
+                logger.debug("Released tokenizer {}", entry.key);
+            }
+        }
+    }
+
+    /**
+     * A key identifies tokenizers that are interchangeable: a modified user dictionary yields a new key.
+     *
+     * @param task
+     * @return
+     */
+    static String buildKey(PluginTask task)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(task.getTokenizer()).append(':').append(task.getMode());
+        if (task.getTokenizer().equals("neologd")) {
+            key.append(":stop_tag=").append(task.getUseStopTag());
+        }
+        if (task.getDictionaryPath().isPresent()) {
+            File file = new File(task.getDictionaryPath().get());
+            key.append(":dictionary=").append(file.getAbsolutePath())
+                .append('@').append(file.lastModified())
+                .append('#').append(file.length());
+        }
+        return key.toString();
+    }
+
+    private static Object load(PluginTask task)
+    {
+        if (task.getTokenizer().equals("neologd")) {
+            return loadNeologd(task);
+        }
+        return loadKuromoji(task);
+    }
+
+    private static Tokenizer loadKuromoji(PluginTask task)
+    {
+        Tokenizer.Builder builder = new Tokenizer.Builder();
+        if (task.getDictionaryPath().isPresent()) {
+            try (InputStream in = new FileInputStream(task.getDictionaryPath().get())) {
+                builder.userDictionary(in);
+            }
+            catch (IOException e) {
+                logger.error("kuromoji error", e);
+            }
+        }
+
+        TokenizerBase.Mode mode = null;
+        if (task.getMode().equals("normal")) {
+            mode = TokenizerBase.Mode.NORMAL;
+        }
+        else if (task.getMode().equals("search")) {
+            mode = TokenizerBase.Mode.SEARCH;
+        }
+        else if (task.getMode().equals("extended")) {
+            mode = TokenizerBase.Mode.EXTENDED;
+        }
+
+        builder.mode(mode);
+        return builder.build();
+    }
+
+    private static JapaneseAnalyzer loadNeologd(PluginTask task)
+    {
+        UserDictionary userDict = null;
+        if (task.getDictionaryPath().isPresent()) {
+            File file = new File(task.getDictionaryPath().get());
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)) {
+                userDict = UserDictionary.open(reader);
+            }
+            catch (Exception e) {
+                logger.error("neologd error", e);
+            }
+        }
+
+        JapaneseTokenizer.Mode mode = null;
+        if (task.getMode().equals("normal")) {
+            mode = JapaneseTokenizer.Mode.NORMAL;
+        }
+        else if (task.getMode().equals("search")) {
+            mode = JapaneseTokenizer.Mode.SEARCH;
+        }
+        else if (task.getMode().equals("extended")) {
+            mode = JapaneseTokenizer.Mode.EXTENDED;
+        }
+
+        CharArraySet stopSet = null;
+        Set<String> stopTags = Sets.newHashSet();
+        if (task.getUseStopTag()) {
+            stopSet = JapaneseAnalyzer.getDefaultStopSet();
+            stopTags = JapaneseAnalyzer.getDefaultStopTags();
+        }
+        return new JapaneseAnalyzer(userDict, mode, stopSet, stopTags);
+    }
+
+    private static class Entry
+    {
+        private final String key;
+        private final FutureTask<Object> tokenizer;
+        private int references;
+
+        Entry(String key, FutureTask<Object> tokenizer)
+        {
+            this.key = key;
+            this.tokenizer = tokenizer;
+        }
+
+        boolean isLoaded()
+        {
+            if (!tokenizer.isDone()) {
+                return false;
+            }
+            try {
+                tokenizer.get();
+                return true;
+            }
+            catch (InterruptedException | ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return the tokenizer, waiting for it to be loaded
+         */
+        Object get()
+        {
+            try {
+                return tokenizer.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // unwrap the ExecutionException of Exec.doWith
+                throw Throwables.propagate(cause instanceof ExecutionException ? cause.getCause() : cause);
+            }
+        }
+    }
+
+    public static class Lease implements AutoCloseable
+    {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry)
+        {
+            this.entry = entry;
+        }
+
+        /**
+         * @param fields token fields to read
+         * @param partOfSpeechFilter nullable
+         * @return engine of the shared tokenizer. when it is still loading, the engine waits for it on first use.
+         */
+        public TokenizerEngine newEngine(final Set<TokenBuffer.Field> fields, final PartOfSpeechFilter partOfSpeechFilter)
+        {
+            if (entry.tokenizer.isDone()) {
+                return createEngine(fields, partOfSpeechFilter);
+            }
+            return new TokenizerEngine()
+            {
+                private volatile TokenizerEngine engine;
+
+                @Override
+                public void tokenize(String text, TokenBuffer tokens)
+                {
+                    if (engine == null) {
+                        synchronized (this) {
+                            if (engine == null) {
+                                long start = System.currentTimeMillis();
+                                engine = createEngine(fields, partOfSpeechFilter);
+                                logger.info("Waited {} ms for tokenizer {}", System.currentTimeMillis() - start, entry.key);
+                            }
+                        }
+                    }
+                    engine.tokenize(text, tokens);
+                }
+            };
+        }
+
+        private TokenizerEngine createEngine(Set<TokenBuffer.Field> fields, PartOfSpeechFilter partOfSpeechFilter)
+        {
+            Object tokenizer = entry.get();
+            if (tokenizer instanceof JapaneseAnalyzer) {
+                return new NeologdEngine((JapaneseAnalyzer) tokenizer, fields, partOfSpeechFilter);
+            }
+            return new KuromojiEngine((Tokenizer) tokenizer, fields, partOfSpeechFilter);
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+}
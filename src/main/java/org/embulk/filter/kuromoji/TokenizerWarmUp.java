@@ -0,0 +1,83 @@
+package org.embulk.filter.kuromoji;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Warms up a shared tokenizer in the transaction ({@code warm_up}) so that the tasks start with
+ * a loaded dictionary and compiled tokenizer code paths.
+ *
+ * The built-in corpus is tokenized repeatedly for {@code warm_up_millis}, reading every token
+ * field, and at least once.
+ */
+public class TokenizerWarmUp
+{
+    private static final Logger logger = Exec.getLogger(KuromojiFilterPlugin.class);
+    private static final String CORPUS = "/org/embulk/filter/kuromoji/warmup.txt";
+
+    private TokenizerWarmUp()
+    {
+    }
+
+    /**
+     * @param task
+     * @return lease of the loaded and warmed tokenizer. must be closed by the caller after the tasks.
+     */
+    public static TokenizerRegistry.Lease run(PluginTask task)
+    {
+        long start = System.currentTimeMillis();
+        TokenizerRegistry.Lease lease = TokenizerRegistry.acquire(task);
+        long loaded = System.currentTimeMillis();
+
+        List<String> corpus = readCorpus();
+        TokenizerEngine engine = lease.newEngine(EnumSet.allOf(TokenBuffer.Field.class), PartOfSpeechFilter.of(task));
+        TokenBuffer tokens = new TokenBuffer();
+        long deadline = loaded + task.getWarmUpMillis();
+        long texts = 0;
+        long count = 0;
+        do {
+            for (String text : corpus) {
+                tokens.clear();
+                engine.tokenize(text, tokens);
+                count += tokens.size();
+                texts++;
+            }
+        }
+        while (System.currentTimeMillis() < deadline);
+
+        long end = System.currentTimeMillis();
+        logger.info("Warmed up tokenizer {}: loaded in {} ms, tokenized {} texts ({} tokens) in {} ms",
+                task.getTokenizer(), loaded - start, texts, count, end - loaded);
+        return lease;
+    }
+
+    private static List<String> readCorpus()
+    {
+        List<String> lines = Lists.newArrayList();
+        try (InputStream in = TokenizerWarmUp.class.getResourceAsStream(CORPUS);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return lines;
+    }
+}
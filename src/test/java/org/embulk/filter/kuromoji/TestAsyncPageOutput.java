@@ -0,0 +1,218 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class TestAsyncPageOutput
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testOrderedDelivery()
+    {
+        FakeOutput delegate = new FakeOutput();
+        AsyncPageOutput output = new AsyncPageOutput(delegate, 2, "test");
+        List<Page> pages = Lists.newArrayList();
+        try {
+            for (int i = 0; i < 100; i++) {
+                TestPage page = new TestPage();
+                pages.add(page);
+                output.add(page);
+            }
+            output.finish();
+        }
+        finally {
+            output.close();
+        }
+        assertEquals(pages, delegate.pages);
+        assertTrue(delegate.finished);
+        assertTrue(delegate.closed);
+    }
+
+    @Test
+    public void testDelegateErrorFailsAddAndFinish() throws InterruptedException
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        FakeOutput delegate = new FakeOutput();
+        delegate.gate = gate;
+        delegate.failures = 1;
+        AsyncPageOutput output = new AsyncPageOutput(delegate, 4, "test");
+        TestPage first = new TestPage();
+        TestPage second = new TestPage();
+        TestPage third = new TestPage();
+        try {
+            output.add(first);
+            assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+            // queued while the delegate fails on the first page
+            output.add(second);
+            gate.countDown();
+
+            try {
+                output.finish();
+                fail();
+            }
+            catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            try {
+                output.add(third);
+                fail();
+            }
+            catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+        }
+        finally {
+            output.close();
+        }
+        assertEquals(ImmutableList.of(first), delegate.pages);
+        assertTrue(second.released);
+        assertTrue(third.released);
+        assertFalse(delegate.finished);
+        assertTrue(delegate.closed);
+    }
+
+    @Test
+    public void testAddReleasesPageAfterFailure()
+    {
+        FakeOutput delegate = new FakeOutput();
+        delegate.failures = 1;
+        AsyncPageOutput output = new AsyncPageOutput(delegate, 4, "test");
+        TestPage page = new TestPage();
+        try {
+            output.add(new TestPage());
+            try {
+                output.finish();
+                fail();
+            }
+            catch (IllegalStateException e) {
+            }
+            try {
+                output.add(page);
+                fail();
+            }
+            catch (IllegalStateException e) {
+            }
+            assertTrue(page.released);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void testCloseWithoutFinishReleasesQueuedPages() throws InterruptedException
+    {
+        // the delegate stays on the first page until close releases the queued ones
+        CountDownLatch released = new CountDownLatch(2);
+        FakeOutput delegate = new FakeOutput();
+        delegate.gate = released;
+        AsyncPageOutput output = new AsyncPageOutput(delegate, 4, "test");
+        TestPage first = new TestPage();
+        TestPage second = new TestPage(released);
+        TestPage third = new TestPage(released);
+        try {
+            output.add(first);
+            assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+            output.add(second);
+            output.add(third);
+        }
+        finally {
+            output.close();
+        }
+        assertEquals(ImmutableList.of(first), delegate.pages);
+        assertFalse(first.released);
+        assertTrue(second.released);
+        assertTrue(third.released);
+        assertFalse(delegate.finished);
+        assertTrue(delegate.closed);
+        // close is idempotent
+        output.close();
+    }
+
+    private static class TestPage extends Page
+    {
+        private final CountDownLatch latch;
+        private volatile boolean released;
+
+        TestPage()
+        {
+            this(null);
+        }
+
+        TestPage(CountDownLatch latch)
+        {
+            super(Buffer.allocate(8));
+            this.latch = latch;
+        }
+
+        @Override
+        public void release()
+        {
+            released = true;
+            super.release();
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+    private static class FakeOutput implements PageOutput
+    {
+        private final List<Page> pages = Collections.synchronizedList(Lists.<Page>newArrayList());
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private CountDownLatch gate;
+        private int failures;
+        private boolean finished;
+        private boolean closed;
+
+        @Override
+        public void add(Page page)
+        {
+            pages.add(page);
+            entered.countDown();
+            if (gate != null) {
+                try {
+                    assertTrue(gate.await(10, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("failed");
+            }
+        }
+
+        @Override
+        public void finish()
+        {
+            finished = true;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+}
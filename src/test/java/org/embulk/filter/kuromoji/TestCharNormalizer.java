@@ -0,0 +1,118 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.Normalizer;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.NormalizeTask;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestCharNormalizer
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static CharNormalizer normalizer(ConfigSource config)
+    {
+        return CharNormalizer.of(config.loadConfig(NormalizeTask.class));
+    }
+
+    private static String normalize(CharNormalizer normalizer, String text)
+    {
+        return normalizer.normalize(text, new StringBuilder());
+    }
+
+    private static void assertNfkc(CharNormalizer normalizer, String... texts)
+    {
+        for (String text : texts) {
+            assertEquals(text, Normalizer.normalize(text, Normalizer.Form.NFKC), normalize(normalizer, text));
+        }
+    }
+
+    @Test
+    public void testHalfWidthKana()
+    {
+        assertNfkc(normalizer(Exec.newConfigSource()),
+                "ｶﾞｷﾞｸﾞﾊﾟﾋﾟﾌﾟｳﾞ",
+                "ﾃﾞｰﾀﾍﾞｰｽ ｱｲｳｴｵ",
+                "ﾞｶ",
+                "ｶﾞﾞ",
+                "ﾟ",
+                "\uff8a\u309a");
+        assertEquals("データベース", normalize(normalizer(Exec.newConfigSource()), "ﾃﾞｰﾀﾍﾞｰｽ"));
+    }
+
+    @Test
+    public void testFullWidthAlphanumerics()
+    {
+        assertNfkc(normalizer(Exec.newConfigSource()),
+                "ＡＢＣ１２３ａｂｃ！？",
+                "　全角スペース",
+                "①②㈱㌔");
+    }
+
+    @Test
+    public void testCombiningMarks()
+    {
+        assertNfkc(normalizer(Exec.newConfigSource()),
+                "e\u0301",
+                "\u304b\u3099",
+                "A\u030a",
+                "\uff76\u0301",
+                "\u1100\u1161\u11a8");
+    }
+
+    @Test
+    public void testSupplementaryCharacters()
+    {
+        assertNfkc(normalizer(Exec.newConfigSource()),
+                "𠮷野家",
+                "😀x",
+                "𝐀𝐁");
+    }
+
+    @Test
+    public void testEveryBmpChar()
+    {
+        CharNormalizer normalizer = normalizer(Exec.newConfigSource());
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (!Character.isSurrogate((char) c)) {
+                assertNfkc(normalizer, String.valueOf((char) c));
+            }
+        }
+    }
+
+    @Test
+    public void testReturnUnchangedText()
+    {
+        String text = "東京スカイツリー";
+        assertSame(text, normalize(normalizer(Exec.newConfigSource()), text));
+    }
+
+    @Test
+    public void testReplaceLongestFirst()
+    {
+        CharNormalizer normalizer = normalizer(Exec.newConfigSource()
+                .set("replace", ImmutableMap.of("東京", "A", "東京都", "B", "ｶﾞ", "G")));
+        assertEquals("BとA", normalize(normalizer, "東京都と東京"));
+        // keys match the text before the other stages
+        assertEquals("Gギ", normalize(normalizer, "ｶﾞｷﾞ"));
+    }
+
+    @Test
+    public void testLowercaseAndRemove()
+    {
+        CharNormalizer normalizer = normalizer(Exec.newConfigSource()
+                .set("lowercase", true)
+                .set("remove", "・-"));
+        assertEquals("abc def", normalize(normalizer, "ＡＢＣ Def"));
+        assertEquals("アイウ", normalize(normalizer, "ア・イ-ウ"));
+    }
+}
@@ -1,5 +1,230 @@
 package org.embulk.filter.kuromoji;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Column;
+import org.embulk.spi.Exec;
+import org.embulk.spi.FilterPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 public class TestKuromojiFilterPlugin
 {
+    // catchcopy of the README example
+    private static final String CATCHCOPY = "安全・安心を追及した曲面ボディにデザインを一新。";
+    private static final List<String> SURFACE_FORMS = ImmutableList.of(
+            "安全", "・", "安心", "を", "追及", "し", "た", "曲面", "ボディ", "に", "デザイン", "を", "一新", "。");
+    private static final List<String> BASE_FORMS = ImmutableList.of(
+            "安全", "・", "安心", "を", "追及", "する", "た", "曲面", "ボディ", "に", "デザイン", "を", "一新", "。");
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private final Schema inputSchema = Schema.builder()
+            .add("id", Types.LONG)
+            .add("catchcopy", Types.STRING)
+            .build();
+
+    private static ConfigSource config(String tokenizer)
+    {
+        return Exec.newConfigSource()
+                .set("type", "kuromoji")
+                .set("tokenizer", tokenizer)
+                .set("key_names", ImmutableList.of("catchcopy"))
+                .set("settings", ImmutableList.of(
+                        ImmutableMap.of("method", "reading", "delimiter", ""),
+                        ImmutableMap.of("suffix", "_surface_form_no_delim", "method", "surface_form", "delimiter", ""),
+                        ImmutableMap.of("suffix", "_base_form", "method", "base_form", "delimiter", "###"),
+                        ImmutableMap.of("suffix", "_surface_form", "method", "surface_form", "delimiter", "###"),
+                        ImmutableMap.of("suffix", "_array", "method", "surface_form", "type", "array")));
+    }
+
+    @Test
+    public void testKuromoji()
+    {
+        List<Map<String, Object>> rows = run(config("kuromoji").set("keep_input", false), 1L, CATCHCOPY);
+        assertEquals(1, rows.size());
+        Map<String, Object> row = rows.get(0);
+        assertEquals(ImmutableList.of("catchcopy", "catchcopy_surface_form_no_delim", "catchcopy_base_form",
+                "catchcopy_surface_form", "catchcopy_array"), ImmutableList.copyOf(row.keySet()));
+        assertEquals("アンゼン・アンシンヲツイキュウシタキョクメンボディニデザインヲイッシン。", row.get("catchcopy"));
+        assertEquals(CATCHCOPY, row.get("catchcopy_surface_form_no_delim"));
+        assertEquals(Joiner.on("###").join(BASE_FORMS), row.get("catchcopy_base_form"));
+        assertEquals(Joiner.on("###").join(SURFACE_FORMS), row.get("catchcopy_surface_form"));
+        assertEquals(SURFACE_FORMS, row.get("catchcopy_array"));
+    }
+
+    @Test
+    public void testKeepInput()
+    {
+        List<Map<String, Object>> rows = run(config("kuromoji"), 1L, CATCHCOPY, 2L, null, 3L, CATCHCOPY);
+        assertEquals(3, rows.size());
+        assertEquals(ImmutableList.of("id", "catchcopy", "catchcopy_surface_form_no_delim", "catchcopy_base_form",
+                "catchcopy_surface_form", "catchcopy_array"), ImmutableList.copyOf(rows.get(0).keySet()));
+
+        // the reading overwrites the input column of the same name
+        assertEquals(1L, rows.get(0).get("id"));
+        assertEquals("アンゼン・アンシンヲツイキュウシタキョクメンボディニデザインヲイッシン。", rows.get(0).get("catchcopy"));
+        assertEquals(SURFACE_FORMS, rows.get(0).get("catchcopy_array"));
+
+        assertEquals(2L, rows.get(1).get("id"));
+        assertNull(rows.get(1).get("catchcopy"));
+        assertNull(rows.get(1).get("catchcopy_array"));
+
+        assertEquals(3L, rows.get(2).get("id"));
+        assertEquals(rows.get(0).get("catchcopy_surface_form"), rows.get(2).get("catchcopy_surface_form"));
+    }
+
+    @Test
+    public void testNeologd()
+    {
+        List<Map<String, Object>> rows = run(config("neologd").set("keep_input", false), 1L, CATCHCOPY);
+        assertEquals(1, rows.size());
+        Map<String, Object> row = rows.get(0);
+
+        @SuppressWarnings("unchecked")
+        List<String> surfaceForms = (List<String>) row.get("catchcopy_array");
+        // punctuation is discarded by the lucene tokenizer
+        assertTrue(surfaceForms.toString(), surfaceForms.contains("デザイン"));
+        assertTrue(surfaceForms.toString(), !surfaceForms.contains("。"));
+        assertEquals(Joiner.on("###").join(surfaceForms), row.get("catchcopy_surface_form"));
+        assertEquals(Joiner.on("").join(surfaceForms), row.get("catchcopy_surface_form_no_delim"));
+        assertTrue((String) row.get("catchcopy"), ((String) row.get("catchcopy")).contains("デザイン"));
+    }
+
+    @Test
+    public void testParallelismAndPipeline()
+    {
+        List<Map<String, Object>> expected = run(config("kuromoji"), 1L, CATCHCOPY, 2L, "東京スカイツリー", 3L, null);
+        assertEquals(expected, run(config("kuromoji").set("parallelism", 2).set("pipeline", true),
+                1L, CATCHCOPY, 2L, "東京スカイツリー", 3L, null));
+    }
+
+    /**
+     * @param config
+     * @param values id and catchcopy of each record
+     * @return output records, column name to value. json arrays are lists of strings.
+     */
+    private List<Map<String, Object>> run(ConfigSource config, Object... values)
+    {
+        final List<Page> input = buildPages(values);
+        final List<Map<String, Object>> rows = Lists.newArrayList();
+        final KuromojiFilterPlugin plugin = new KuromojiFilterPlugin();
+        plugin.transaction(config, inputSchema, new FilterPlugin.Control()
+        {
+            @Override
+            public void run(TaskSource taskSource, Schema outputSchema)
+            {
+                CollectOutput collect = new CollectOutput();
+                PageOutput output = plugin.open(taskSource, inputSchema, outputSchema, collect);
+                try {
+                    for (Page page : input) {
+                        output.add(page);
+                    }
+                    output.finish();
+                }
+                finally {
+                    output.close();
+                }
+                rows.addAll(read(outputSchema, collect.pages));
+            }
+        });
+        return rows;
+    }
+
+    private List<Page> buildPages(Object... values)
+    {
+        CollectOutput collect = new CollectOutput();
+        PageBuilder builder = new PageBuilder(Exec.getBufferAllocator(), inputSchema, collect);
+        for (int i = 0; i < values.length; i += 2) {
+            builder.setLong(0, (Long) values[i]);
+            if (values[i + 1] == null) {
+                builder.setNull(1);
+            }
+            else {
+                builder.setString(1, (String) values[i + 1]);
+            }
+            builder.addRecord();
+        }
+        builder.finish();
+        return collect.pages;
+    }
+
+    private static List<Map<String, Object>> read(Schema schema, List<Page> pages)
+    {
+        List<Map<String, Object>> rows = Lists.newArrayList();
+        PageReader reader = new PageReader(schema);
+        for (Page page : pages) {
+            reader.setPage(page);
+            while (reader.nextRecord()) {
+                Map<String, Object> row = Maps.newLinkedHashMap();
+                for (Column column : schema.getColumns()) {
+                    row.put(column.getName(), get(reader, column));
+                }
+                rows.add(row);
+            }
+        }
+        reader.close();
+        return rows;
+    }
+
+    private static Object get(PageReader reader, Column column)
+    {
+        if (reader.isNull(column)) {
+            return null;
+        }
+        if (Types.LONG.equals(column.getType())) {
+            return reader.getLong(column);
+        }
+        if (Types.JSON.equals(column.getType())) {
+            List<String> words = Lists.newArrayList();
+            for (Value word : reader.getJson(column).asArrayValue()) {
+                words.add(word.asStringValue().asString());
+            }
+            return words;
+        }
+        return reader.getString(column);
+    }
+
+    private static class CollectOutput implements PageOutput
+    {
+        private final List<Page> pages = Lists.newArrayList();
+
+        @Override
+        public void add(Page page)
+        {
+            pages.add(page);
+        }
+
+        @Override
+        public void finish()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
 }
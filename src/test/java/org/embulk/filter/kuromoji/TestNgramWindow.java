@@ -0,0 +1,110 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class TestNgramWindow
+{
+    private static NgramWindow window(Map<String, ?> ngram)
+    {
+        return new NgramWindow(OutputPlan.Setting.of(ImmutableMap.<String, Object>of("method", "surface_form", "ngram", ngram)).getNgram());
+    }
+
+    private static List<String> push(NgramWindow window, String... words)
+    {
+        final List<String> shingles = Lists.newArrayList();
+        NgramWindow.Sink sink = new NgramWindow.Sink()
+        {
+            @Override
+            public void shingle(char[] buffer, int offset, int length)
+            {
+                shingles.add(new String(buffer, offset, length));
+            }
+        };
+        window.reset();
+        for (String word : words) {
+            char[] chars = ("<" + word + ">").toCharArray();
+            if (word.length() % 2 == 0) {
+                window.push(chars, 1, word.length(), sink);
+            }
+            else {
+                window.push(word, sink);
+            }
+        }
+        return shingles;
+    }
+
+    @Test
+    public void testUnigramsAndBigrams()
+    {
+        assertEquals(ImmutableList.of("a", "b", "a_b", "c", "b_c"),
+                push(window(ImmutableMap.of("min", 1, "max", 2)), "a", "b", "c"));
+        // max defaults to max(min, 2)
+        assertEquals(ImmutableList.of("a", "b", "a_b", "c", "b_c"),
+                push(window(ImmutableMap.of("min", 1)), "a", "b", "c"));
+    }
+
+    @Test
+    public void testMinAndMax()
+    {
+        assertEquals(ImmutableList.of("a b", "b c", "a b c", "c d", "b c d"),
+                push(window(ImmutableMap.of("min", 2, "max", 3, "separator", " ")), "a", "b", "c", "d"));
+        assertEquals(ImmutableList.of("a_b_c", "b_c_d"),
+                push(window(ImmutableMap.of("min", 3)), "a", "b", "c", "d"));
+        assertEquals(ImmutableList.of(),
+                push(window(ImmutableMap.of("min", 3)), "a", "b"));
+    }
+
+    @Test
+    public void testMaxShingles()
+    {
+        assertEquals(ImmutableList.of("a", "b", "a_b"),
+                push(window(ImmutableMap.of("min", 1, "max", 2, "max_shingles", 3)), "a", "b", "c", "d"));
+    }
+
+    @Test
+    public void testReset()
+    {
+        NgramWindow window = window(ImmutableMap.of("min", 1, "max", 2, "max_shingles", 2));
+        push(window, "a", "b", "c");
+        assertEquals(ImmutableList.of("x", "y"), push(window, "x", "y"));
+    }
+
+    @Test
+    public void testLongWords()
+    {
+        String a = Strings.repeat("あ", 40);
+        String b = Strings.repeat("bc", 25);
+        String c = Strings.repeat("d", 33);
+        assertEquals(ImmutableList.of(a + "_" + b, b + "_" + c, a + "_" + b + "_" + c),
+                push(window(ImmutableMap.of("min", 2, "max", 3)), a, b, c));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testMinMustBePositive()
+    {
+        window(ImmutableMap.of("min", 0));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testMaxMustNotBeLessThanMin()
+    {
+        window(ImmutableMap.of("min", 3, "max", 2));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testMaxShinglesMustBePositive()
+    {
+        window(ImmutableMap.of("min", 1, "max_shingles", 0));
+    }
+}
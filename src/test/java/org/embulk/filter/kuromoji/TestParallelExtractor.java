@@ -0,0 +1,107 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestParallelExtractor
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    /**
+     * Outputs the source with the name of the worker. Sources starting with {@code ~} are not
+     * cacheable, and {@code !} fails.
+     */
+    private static class StubExtractor implements ParallelExtractor.Extractor
+    {
+        @Override
+        public Object[] extract(String source)
+        {
+            if (source.equals("!")) {
+                throw new IllegalStateException("failed");
+            }
+            if (source.startsWith("0")) {
+                // the first slice finishes last
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return new Object[] {source, Thread.currentThread().getName()};
+        }
+
+        @Override
+        public boolean isCacheable(Object[] outputs)
+        {
+            // called on the worker that extracted the outputs
+            return !((String) outputs[0]).startsWith("~") && outputs[1].equals(Thread.currentThread().getName());
+        }
+    }
+
+    private static String[] sources(int size)
+    {
+        String[] sources = new String[size];
+        for (int i = 0; i < size; i++) {
+            sources[i] = String.valueOf(i);
+        }
+        return sources;
+    }
+
+    private static void assertExtracted(String[] sources, Object[][] outputs)
+    {
+        assertEquals(sources.length, outputs.length);
+        for (int i = 0; i < sources.length; i++) {
+            assertEquals(sources[i], outputs[i][0]);
+        }
+    }
+
+    @Test
+    public void testOrderAcrossUnevenSlices()
+    {
+        try (ParallelExtractor extractor = new ParallelExtractor(new StubExtractor(), 3)) {
+            for (int size : new int[] {0, 1, 2, 3, 10, 11, 100}) {
+                String[] sources = sources(size);
+                assertExtracted(sources, extractor.extractAll(sources, new boolean[size]));
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerException()
+    {
+        try (ParallelExtractor extractor = new ParallelExtractor(new StubExtractor(), 2)) {
+            String[] sources = {"0", "1", "2", "!", "4"};
+            try {
+                extractor.extractAll(sources, new boolean[sources.length]);
+                fail();
+            }
+            catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            // the pool is still usable for the next page
+            sources = sources(4);
+            assertExtracted(sources, extractor.extractAll(sources, new boolean[sources.length]));
+        }
+    }
+
+    @Test
+    public void testCacheable()
+    {
+        try (ParallelExtractor extractor = new ParallelExtractor(new StubExtractor(), 3)) {
+            String[] sources = {"0", "~1", "2", "3", "~4", "5", "~6"};
+            boolean[] cacheable = new boolean[sources.length];
+            Arrays.fill(cacheable, true);
+            assertExtracted(sources, extractor.extractAll(sources, cacheable));
+            assertArrayEquals(new boolean[] {true, false, true, true, false, true, false}, cacheable);
+        }
+    }
+}
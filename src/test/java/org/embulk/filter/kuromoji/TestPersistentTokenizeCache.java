@@ -0,0 +1,186 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.filter.kuromoji.KuromojiFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestPersistentTokenizeCache
+{
+    private static final OutputPlan.Setting[] SETTINGS = {
+        OutputPlan.Setting.of(ImmutableMap.of("suffix", "_surface_form", "method", "surface_form")),
+    };
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PluginTask task(File file, long fingerprint)
+    {
+        PluginTask task = Exec.newConfigSource()
+                .set("key_names", ImmutableList.of("text"))
+                .set("settings", ImmutableList.of(ImmutableMap.of("suffix", "_surface_form", "method", "surface_form")))
+                .set("persistent_cache_path", file.getPath())
+                .loadConfig(PluginTask.class);
+        task.setPersistentCacheFingerprint(fingerprint);
+        return task;
+    }
+
+    private static void write(PluginTask task, String... sources)
+    {
+        PersistentTokenizeCache.begin(task);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        for (String source : sources) {
+            cache.put(source, new Object[] {source + "!"});
+        }
+        PersistentTokenizeCache.commit(task);
+    }
+
+    @Test
+    public void testWriteAndReopen() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        write(task(file, 1), "東京", "大阪");
+        assertTrue(file.isFile());
+
+        PluginTask task = task(file, 1);
+        PersistentTokenizeCache.begin(task);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        assertArrayEquals(new Object[] {"東京!"}, cache.get("東京", SETTINGS));
+        assertArrayEquals(new Object[] {"大阪!"}, cache.get("大阪", SETTINGS));
+        assertNull(cache.get("名古屋", SETTINGS));
+        PersistentTokenizeCache.commit(task);
+
+        // reused entries are kept by the rewrite
+        task = task(file, 1);
+        cache = PersistentTokenizeCache.open(task);
+        assertArrayEquals(new Object[] {"東京!"}, cache.get("東京", SETTINGS));
+        PersistentTokenizeCache.commit(task);
+    }
+
+    @Test
+    public void testIgnoreFileOfAnotherFingerprint() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        write(task(file, 1), "東京");
+
+        PluginTask task = task(file, 2);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        assertNull(cache.get("東京", SETTINGS));
+        PersistentTokenizeCache.commit(task);
+    }
+
+    @Test
+    public void testOpenTruncatedFile() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        write(task(file, 1), "東京", "大阪");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        PluginTask task = task(file, 1);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        int hits = 0;
+        for (String source : new String[] {"東京", "大阪"}) {
+            Object[] outputs = cache.get(source, SETTINGS);
+            if (outputs != null) {
+                assertArrayEquals(new Object[] {source + "!"}, outputs);
+                hits++;
+            }
+        }
+        // the last record is cut off
+        assertEquals(1, hits);
+        PersistentTokenizeCache.commit(task);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(5);
+        }
+        task = task(file, 1);
+        cache = PersistentTokenizeCache.open(task);
+        assertNull(cache.get("東京", SETTINGS));
+        PersistentTokenizeCache.commit(task);
+    }
+
+    @Test
+    public void testReadOnlyWithoutTransaction() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        PluginTask task = task(file, 1);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        cache.put("東京", new Object[] {"東京!"});
+        assertNull(cache.get("東京", SETTINGS));
+        PersistentTokenizeCache.commit(task);
+    }
+
+    @Test
+    public void testSharedByPathAndFingerprint() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        write(task(file, 1), "東京");
+
+        PersistentTokenizeCache first = PersistentTokenizeCache.open(task(file, 1));
+        PersistentTokenizeCache second = PersistentTokenizeCache.open(task(file, 1));
+        PersistentTokenizeCache other = PersistentTokenizeCache.open(task(file, 2));
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertArrayEquals(new Object[] {"東京!"}, first.get("東京", SETTINGS));
+        assertNull(other.get("東京", SETTINGS));
+        PersistentTokenizeCache.release(first);
+        PersistentTokenizeCache.release(second);
+        PersistentTokenizeCache.release(other);
+    }
+
+    @Test
+    public void testReleaseReadOnlyCache() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        PersistentTokenizeCache first = PersistentTokenizeCache.open(task(file, 1));
+        PersistentTokenizeCache second = PersistentTokenizeCache.open(task(file, 1));
+        PersistentTokenizeCache.release(first);
+        // still used by the second task
+        assertSame(second, PersistentTokenizeCache.open(task(file, 1)));
+        PersistentTokenizeCache.release(second);
+        PersistentTokenizeCache.release(second);
+        // dropped with the last task
+        PersistentTokenizeCache third = PersistentTokenizeCache.open(task(file, 1));
+        assertNotSame(second, third);
+        PersistentTokenizeCache.release(third);
+    }
+
+    @Test
+    public void testKeepWritableCacheUntilCommit() throws IOException
+    {
+        File file = new File(folder.getRoot(), "cache.bin");
+        PluginTask task = task(file, 1);
+        PersistentTokenizeCache.begin(task);
+        PersistentTokenizeCache cache = PersistentTokenizeCache.open(task);
+        cache.put("東京", new Object[] {"東京!"});
+        PersistentTokenizeCache.release(cache);
+        assertSame(cache, PersistentTokenizeCache.open(task));
+        PersistentTokenizeCache.release(cache);
+        PersistentTokenizeCache.commit(task);
+
+        cache = PersistentTokenizeCache.open(task(file, 1));
+        assertArrayEquals(new Object[] {"東京!"}, cache.get("東京", SETTINGS));
+        PersistentTokenizeCache.release(cache);
+    }
+}
@@ -0,0 +1,121 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestTermCounter
+{
+    private static Map<String, Long> count(TermCounter counter, String... terms)
+    {
+        counter.reset();
+        for (String term : terms) {
+            counter.add(term);
+        }
+        return toMap(counter.build(null));
+    }
+
+    private static Map<String, Long> toMap(Value value)
+    {
+        Value[] kvs = value.asMapValue().getKeyValueArray();
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < kvs.length; i += 2) {
+            map.put(kvs[i].asStringValue().asString(), kvs[i + 1].asIntegerValue().asLong());
+        }
+        return map;
+    }
+
+    private static void assertOrdered(Map<String, Long> expected, Map<String, Long> actual)
+    {
+        assertEquals(expected, actual);
+        assertEquals(expected.keySet().toString(), actual.keySet().toString());
+    }
+
+    @Test
+    public void testCountInOrderOfFirstOccurrence()
+    {
+        assertOrdered(ImmutableMap.of("b", 2L, "a", 3L, "c", 1L),
+                count(new TermCounter(0, 1), "b", "a", "a", "c", "b", "a"));
+    }
+
+    @Test
+    public void testTopK()
+    {
+        TermCounter counter = new TermCounter(2, 1);
+        assertOrdered(ImmutableMap.of("a", 3L, "b", 2L),
+                count(counter, "b", "a", "a", "c", "b", "a"));
+        // earlier terms first within the same count
+        assertOrdered(ImmutableMap.of("x", 1L, "y", 1L),
+                count(counter, "x", "y", "z"));
+        // fewer terms than top_k are sorted by count as well
+        assertOrdered(ImmutableMap.of("x", 2L, "z", 1L),
+                count(counter, "z", "x", "x"));
+        assertOrdered(ImmutableMap.of("x", 1L),
+                count(counter, "x"));
+    }
+
+    @Test
+    public void testMinCount()
+    {
+        assertOrdered(ImmutableMap.of("b", 2L, "a", 3L),
+                count(new TermCounter(0, 2), "b", "a", "a", "c", "b", "a"));
+        assertOrdered(ImmutableMap.of("a", 3L),
+                count(new TermCounter(1, 2), "b", "a", "a", "c", "b", "a"));
+        assertOrdered(ImmutableMap.<String, Long>of(),
+                count(new TermCounter(0, 4), "b", "a", "a", "c", "b", "a"));
+    }
+
+    @Test
+    public void testReset()
+    {
+        TermCounter counter = new TermCounter(0, 1);
+        count(counter, "a", "b");
+        assertOrdered(ImmutableMap.of("c", 1L), count(counter, "c"));
+    }
+
+    @Test
+    public void testResetAfterGrowing()
+    {
+        TermCounter counter = new TermCounter(0, 1);
+        String[] terms = new String[1000];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = "term-" + i;
+        }
+        count(counter, terms);
+        assertOrdered(ImmutableMap.of("term-1", 2L, "x", 1L), count(counter, "term-1", "x", "term-1"));
+        assertEquals(terms.length, count(counter, terms).size());
+    }
+
+    @Test
+    public void testAddChars()
+    {
+        TermCounter counter = new TermCounter(0, 1);
+        char[] buffer = "東京都東京".toCharArray();
+        counter.reset();
+        counter.add(buffer, 0, 2);
+        counter.add(buffer, 2, 1);
+        counter.add(buffer, 3, 2);
+        counter.add("東京");
+        assertOrdered(ImmutableMap.of("東京", 3L, "都", 1L), toMap(counter.build(null)));
+    }
+
+    @Test
+    public void testManyTerms()
+    {
+        TermCounter counter = new TermCounter(3, 1);
+        counter.reset();
+        for (int i = 0; i < 5000; i++) {
+            counter.add("term-" + (i % 1000));
+        }
+        counter.add("term-999");
+        counter.add("term-500");
+        counter.add("term-999");
+        assertOrdered(ImmutableMap.of("term-999", 7L, "term-500", 6L, "term-0", 5L), toMap(counter.build(null)));
+    }
+}
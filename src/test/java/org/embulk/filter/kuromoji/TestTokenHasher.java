@@ -0,0 +1,65 @@
+package org.embulk.filter.kuromoji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+public class TestTokenHasher
+{
+    private static final String[] WORDS = {
+        "",
+        "a",
+        "ab",
+        "東京",
+        "東京都",
+        "スカイツリー",
+        "𠮷野家",
+        "𠮷",
+        "x😀",
+    };
+
+    @Test
+    public void testMurmur3MatchesGuava()
+    {
+        for (String word : WORDS) {
+            assertEquals(word, Hashing.murmur3_32().hashUnencodedChars(word).asInt(), TokenHasher.murmur3(word));
+            assertEquals(word, Hashing.murmur3_32().hashUnencodedChars(word).asInt(), TokenHasher.murmur3(new StringBuilder(word)));
+        }
+    }
+
+    @Test
+    public void testMurmur3OfCharArray()
+    {
+        for (String word : WORDS) {
+            char[] buffer = ("<<" + word + ">>").toCharArray();
+            assertEquals(word, TokenHasher.murmur3(word), TokenHasher.murmur3(buffer, 2, word.length()));
+        }
+    }
+
+    @Test
+    public void testBucket()
+    {
+        assertEquals(3, TokenHasher.bucket(13, 10));
+        assertEquals(9, TokenHasher.bucket(-1, 10));
+        assertEquals(2, TokenHasher.bucket(-7, 3));
+        assertEquals(0, TokenHasher.bucket(Integer.MIN_VALUE, 1L << 20));
+        assertEquals(Integer.MAX_VALUE, TokenHasher.bucket(Integer.MAX_VALUE, 1L << 32));
+        assertEquals((1L << 32) - 1, TokenHasher.bucket(-1, 1L << 32));
+    }
+
+    @Test
+    public void testBucketOfNegativeHashes()
+    {
+        for (String word : WORDS) {
+            int hash = TokenHasher.murmur3(word);
+            for (long dimension : new long[] {1, 7, 1L << 20}) {
+                long bucket = TokenHasher.bucket(hash, dimension);
+                assertTrue(word, bucket >= 0 && bucket < dimension);
+                assertEquals(word, ((hash % dimension) + dimension) % dimension, bucket);
+            }
+        }
+    }
+}